@@ -17,6 +17,7 @@
 
 package de.siphalor.mousewheelie;
 
+import de.siphalor.mousewheelie.client.network.InteractionManager;
 import de.siphalor.mousewheelie.client.util.ItemStackUtils;
 import dev.isxander.yacl3.api.*;
 import dev.isxander.yacl3.api.controller.EnumControllerBuilder;
@@ -64,6 +65,13 @@ public class MWConfig {
                                 )
                                 .build()
                         )
+                        .option(Option.<Boolean>createBuilder()
+                                .name(Text.translatable("config.screen.mousewheelie.general.integrated-server-execution"))
+                                .description(OptionDescription.of(Text.translatable("config.screen.mousewheelie.general.integrated-server-execution.description")))
+                                .binding(true, () -> integratedServerExecution, value -> integratedServerExecution = value)
+                                .controller(TickBoxControllerBuilder::create)
+                                .build()
+                        )
                         .option(Option.<Boolean>createBuilder()
                                 .name(Text.translatable("config.screen.mousewheelie.general.enable-quick-armor-swapping"))
                                 .description(OptionDescription.of(Text.translatable("config.screen.mousewheelie.general.enable-quick-armor-swapping.description")))
@@ -346,7 +354,10 @@ public class MWConfig {
                                 .build()
                         )
                         .build())
-                .save(() -> HANDLER.save())
+                .save(() -> {
+                    HANDLER.save();
+                    InteractionManager.applyConfiguredTickRate();
+                })
                 .build()
                 .generateScreen(parent);
     }
@@ -359,6 +370,9 @@ public class MWConfig {
 	@SerialEntry
     public static int integratedInteractionRate = 1;
 	
+	@SerialEntry
+    public static boolean integratedServerExecution = true;
+	
 	@SerialEntry
     public static boolean enableQuickArmorSwapping = true;
 	
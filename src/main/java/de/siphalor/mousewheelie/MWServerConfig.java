@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie;
+
+import dev.isxander.yacl3.config.v2.api.ConfigClassHandler;
+import dev.isxander.yacl3.config.v2.api.SerialEntry;
+import dev.isxander.yacl3.config.v2.api.serializer.GsonConfigSerializerBuilder;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.util.Identifier;
+
+/**
+ * Configuration for the logical server, e.g. limits for the work that clients may request.
+ * Work is measured in slots that are touched.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class MWServerConfig {
+
+	public static ConfigClassHandler<MWServerConfig> HANDLER = ConfigClassHandler.createBuilder(MWServerConfig.class)
+			.id(new Identifier("mouse-wheelie-config", "mousewheelie_server"))
+			.serializer(config -> GsonConfigSerializerBuilder.create(config)
+					.setPath(FabricLoader.getInstance().getConfigDir().resolve("mouse-wheelie-server.json5"))
+					.setJson5(true)
+					.build()
+			)
+			.build();
+
+	/**
+	 * The amount of work a single player may request at once.
+	 */
+	@SerialEntry(comment = "The amount of work (in slots) a single player may request at once")
+	public static int playerWorkBurst = 1024;
+
+	/**
+	 * The amount of work that a player regains each tick.
+	 */
+	@SerialEntry(comment = "The amount of work (in slots) a player regains each tick")
+	public static int playerWorkPerTick = 64;
+
+	/**
+	 * The amount of work that is done for all players together in one tick.
+	 */
+	@SerialEntry(comment = "The amount of work (in slots) done for all players together in one tick")
+	public static int tickWorkBudget = 2048;
+
+	/**
+	 * How many requests of a single player may wait for later ticks, before further requests are rejected.
+	 */
+	@SerialEntry(comment = "How many requests of a single player may wait for later ticks before further ones are rejected")
+	public static int maxDeferredRequests = 8;
+}
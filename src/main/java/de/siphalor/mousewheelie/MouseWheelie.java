@@ -34,6 +34,8 @@ public class MouseWheelie implements ModInitializer {
 
 	@Override
 	public void onInitialize() {
+		MWServerConfig.HANDLER.load();
+
 		UseItemCallback.EVENT.register(this::onPlayerUseItem);
 
 		MWLogicalServerNetworking.setup();
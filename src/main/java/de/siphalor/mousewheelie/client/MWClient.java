@@ -21,7 +21,10 @@ import de.siphalor.amecs.api.KeyModifiers;
 import de.siphalor.mousewheelie.MWConfig;
 import de.siphalor.mousewheelie.MouseWheelie;
 import de.siphalor.mousewheelie.client.inventory.ToolPicker;
+import de.siphalor.mousewheelie.client.inventory.sort.SortKeyCache;
 import de.siphalor.mousewheelie.client.keybinding.*;
+import de.siphalor.mousewheelie.client.network.InteractionManager;
+import de.siphalor.mousewheelie.client.network.MWClientNetworking;
 import de.siphalor.mousewheelie.client.util.CreativeSearchOrder;
 import de.siphalor.mousewheelie.client.util.ScrollAction;
 import de.siphalor.mousewheelie.client.util.inject.IContainerScreen;
@@ -30,14 +33,19 @@ import de.siphalor.mousewheelie.client.util.inject.ISpecialScrollableScreen;
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.event.client.player.ClientPickBlockGatherCallback;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.fabricmc.fabric.api.resource.SimpleSynchronousResourceReloadListener;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.option.KeyBinding;
 import net.minecraft.client.util.InputUtil;
 import net.minecraft.item.*;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.hit.BlockHitResult;
 import net.minecraft.util.hit.HitResult;
@@ -78,6 +86,7 @@ public class MWClient implements ClientModInitializer {
 		KeyBindingHelper.registerKeyBinding(RESTOCK_MODIFIER);
 		
 		MWConfig.HANDLER.load();
+		MWClientNetworking.setup();
 		
 		ClientPickBlockGatherCallback.EVENT.register((player, result) -> {
 			Item item = player.getMainHandStack().getItem();
@@ -100,8 +109,26 @@ public class MWClient implements ClientModInitializer {
 			return index == -1 || index == player.getInventory().selectedSlot ? ItemStack.EMPTY : player.getInventory().getStack(index);
 		});
 
+		ClientTickEvents.END_CLIENT_TICK.register(client -> InteractionManager.tick());
+
+		// Changing the language reloads the client resources, so this covers both
+		ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(new SimpleSynchronousResourceReloadListener() {
+			@Override
+			public Identifier getFabricId() {
+				return new Identifier(MouseWheelie.MOD_ID, "sort_key_cache");
+			}
+
+			@Override
+			public void reload(ResourceManager manager) {
+				SortKeyCache.invalidate();
+			}
+		});
+
 		ClientPlayConnectionEvents.JOIN.register((handler, sender, client) -> {
 			CreativeSearchOrder.refreshItemSearchPositionLookup();
+			SortKeyCache.invalidate();
+			InteractionManager.reset();
+			InteractionManager.applyConfiguredTickRate();
 		});
 	}
 
@@ -21,6 +21,8 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import de.siphalor.mousewheelie.MWConfig;
 import de.siphalor.mousewheelie.client.MWClient;
+import de.siphalor.mousewheelie.client.inventory.plan.ClickPlan;
+import de.siphalor.mousewheelie.client.inventory.plan.InventoryModel;
 import de.siphalor.mousewheelie.client.network.ClickEventFactory;
 import de.siphalor.mousewheelie.client.network.InteractionManager;
 import de.siphalor.mousewheelie.client.util.ItemStackUtils;
@@ -35,11 +37,16 @@ import net.minecraft.client.gui.screen.ingame.CreativeInventoryScreen;
 import net.minecraft.client.gui.screen.ingame.HandledScreen;
 import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.item.ItemStack;
+import net.minecraft.screen.GenericContainerScreenHandler;
+import net.minecraft.screen.HopperScreenHandler;
+import net.minecraft.screen.ScreenHandler;
+import net.minecraft.screen.ShulkerBoxScreenHandler;
 import net.minecraft.screen.slot.Slot;
 import net.minecraft.screen.slot.SlotActionType;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -77,6 +84,40 @@ public class ContainerScreenHelper<T extends HandledScreen<?>> {
 		return clickEventFactory.create(slot, action, actionType);
 	}
 
+	/**
+	 * Creates a model of the current state of the screen handler, including the quick move behavior where it is known.
+	 *
+	 * @return a new model
+	 */
+	public InventoryModel createInventoryModel() {
+		ScreenHandler screenHandler = screen.getScreenHandler();
+		InventoryModel model = InventoryModel.of(screenHandler);
+		if (screenHandler instanceof GenericContainerScreenHandler || screenHandler instanceof ShulkerBoxScreenHandler || screenHandler instanceof HopperScreenHandler) {
+			// These handlers move between the container, which comes first, and the player inventory
+			List<Slot> slots = screenHandler.slots;
+			int containerSize = 0;
+			while (containerSize < slots.size() && !(slots.get(containerSize).inventory instanceof PlayerInventory)) {
+				containerSize++;
+			}
+			int[] containerSlots = new int[containerSize];
+			for (int i = 0; i < containerSize; i++) {
+				containerSlots[i] = i;
+			}
+			int[] playerSlots = new int[slots.size() - containerSize];
+			for (int i = 0; i < playerSlots.length; i++) {
+				playerSlots[i] = slots.size() - 1 - i;
+			}
+			for (int i = 0; i < slots.size(); i++) {
+				model.setQuickMoveTargets(i, i < containerSize ? playerSlots : containerSlots);
+			}
+		}
+		return model;
+	}
+
+	public ClickPlan createClickPlan() {
+		return new ClickPlan(createInventoryModel());
+	}
+
 	public SlotInteractionState getSlotState(Slot slot) {
 		Lock readLock = slotStatesLock.readLock();
 		readLock.lock();
@@ -115,10 +156,10 @@ public class ContainerScreenHelper<T extends HandledScreen<?>> {
 			return null;
 		}
 
-		return new InteractionManager.CallbackEvent(() -> {
+		return InteractionManager.ContainerCallbackEvent.wrap(event, () -> {
 			setSlotState(slot, slotState);
 			return event.send();
-		}, event.shouldRunOnMainThread());
+		});
 	}
 
 	private InteractionManager.InteractionEvent unlockAfter(InteractionManager.InteractionEvent event, Slot slot) {
@@ -126,11 +167,11 @@ public class ContainerScreenHelper<T extends HandledScreen<?>> {
 			return null;
 		}
 
-		return new InteractionManager.CallbackEvent(() -> {
+		return InteractionManager.ContainerCallbackEvent.wrap(event, () -> {
 			InteractionManager.Waiter waiter = event.send();
 			unlockSlot(slot);
 			return waiter;
-		}, event.shouldRunOnMainThread());
+		});
 	}
 
 	public void scroll(Slot referenceSlot, boolean scrollUp) {
@@ -355,15 +396,18 @@ public class ContainerScreenHelper<T extends HandledScreen<?>> {
 
 		int scope = getScope(referenceSlot, true);
 		int complementaryScope = getComplementaryScope(scope);
+		ClickPlan plan = createClickPlan();
 		restockAllOfAKind(
+				plan,
 				screen.getScreenHandler().slots.stream()
 						.filter(slot -> getScope(slot, true) == scope && ItemStackUtils.areItemsOfSameKind(slot.getStack(), referenceStack))
 						.iterator(),
 				complementaryScope
 		);
+		plan.push(clickEventFactory).setReplanner(() -> restockAllOfAKind(referenceSlot));
 	}
 
-	private void restockAllOfAKind(Iterator<Slot> targetSlots, int complementaryScope) {
+	private void restockAllOfAKind(ClickPlan plan, Iterator<Slot> targetSlots, int complementaryScope) {
 		Iterator<Slot> takeSlots = ReverseIterator.of(screen.getScreenHandler().slots);
 		Slot currentTakeSlot = null;
 		int currentTakeCount = 0;
@@ -395,10 +439,10 @@ public class ContainerScreenHelper<T extends HandledScreen<?>> {
 							break;
 						}
 					}
-					InteractionManager.push(clickEventFactory.create(currentTakeSlot, 0, SlotActionType.PICKUP));
+					plan.add(currentTakeSlot, 0, SlotActionType.PICKUP);
 				}
 
-				InteractionManager.push(clickEventFactory.create(targetSlot, 0, SlotActionType.PICKUP));
+				plan.add(targetSlot, 0, SlotActionType.PICKUP);
 				space -= currentTakeCount;
 
 				if (space <= 0) {
@@ -410,7 +454,7 @@ public class ContainerScreenHelper<T extends HandledScreen<?>> {
 		}
 
 		if (currentTakeCount > 0) {
-			InteractionManager.push(clickEventFactory.create(currentTakeSlot, 0, SlotActionType.PICKUP));
+			plan.add(currentTakeSlot, 0, SlotActionType.PICKUP);
 		}
 	}
 
@@ -429,9 +473,11 @@ public class ContainerScreenHelper<T extends HandledScreen<?>> {
 		});
 		int complementaryScope = getComplementaryScope(scope);
 
+		ClickPlan plan = createClickPlan();
 		slotsByItemKind.asMap().forEach((itemKind, slots) ->
-				restockAllOfAKind(slots.iterator(), complementaryScope)
+				restockAllOfAKind(plan, slots.iterator(), complementaryScope)
 		);
+		plan.push(clickEventFactory).setReplanner(() -> restockAll(scope));
 	}
 
 	public void dropStack(Slot slot) {
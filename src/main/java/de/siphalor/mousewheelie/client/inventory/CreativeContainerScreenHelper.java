@@ -17,6 +17,7 @@
 
 package de.siphalor.mousewheelie.client.inventory;
 
+import de.siphalor.mousewheelie.client.inventory.plan.InventoryModel;
 import de.siphalor.mousewheelie.client.network.ClickEventFactory;
 import de.siphalor.mousewheelie.client.network.InteractionManager;
 import de.siphalor.mousewheelie.client.util.ItemStackUtils;
@@ -28,12 +29,27 @@ import net.minecraft.item.ItemStack;
 import net.minecraft.screen.slot.Slot;
 import net.minecraft.screen.slot.SlotActionType;
 
+import java.util.List;
+
 @Environment(EnvType.CLIENT)
 public class CreativeContainerScreenHelper<T extends CreativeInventoryScreen> extends ContainerScreenHelper<T> {
 	public CreativeContainerScreenHelper(T screen, ClickEventFactory clickEventFactory) {
 		super(screen, clickEventFactory);
 	}
 
+	@Override
+	public InventoryModel createInventoryModel() {
+		InventoryModel model = super.createInventoryModel();
+		// The creative screen handles clicks outside the player inventory on its own
+		List<Slot> slots = screen.getScreenHandler().slots;
+		for (int i = 0; i < slots.size(); i++) {
+			if (!(slots.get(i).inventory instanceof PlayerInventory)) {
+				model.setUnpredictable(i);
+			}
+		}
+		return model;
+	}
+
 	@Override
 	public void sendSingleItem(Slot slot) {
 		if (slot.inventory instanceof PlayerInventory) {
@@ -186,28 +186,28 @@ public class SlotRefiller {
 			refillFromInventory(hand, slot);
 		}
 
-		InteractionManager.push(REFILL_END_EVENT);
+		InteractionManager.push(REFILL_END_EVENT, InteractionManager.Priority.CRITICAL);
 	}
 
 	private static void refillFromHotbar(Hand hand, int hotbarSlot) {
 		if (MWConfig.restoreSelectedSlot) {
 			if (hand == Hand.MAIN_HAND && !playerInventory.offHand.get(0).isEmpty()) {
-				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT);
+				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT, InteractionManager.Priority.CRITICAL);
 			}
-			InteractionManager.push(new InteractionManager.PacketEvent(new UpdateSelectedSlotC2SPacket(hotbarSlot), InteractionManager.Waiter.equal(InteractionManager.TriggerType.HELD_ITEM_CHANGE)));
-			InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT);
-			InteractionManager.push(new InteractionManager.PacketEvent(new UpdateSelectedSlotC2SPacket(playerInventory.selectedSlot), InteractionManager.TICK_WAITER));
+			InteractionManager.push(new InteractionManager.PacketEvent(new UpdateSelectedSlotC2SPacket(hotbarSlot), InteractionManager.Waiter.equal(InteractionManager.TriggerType.HELD_ITEM_CHANGE)), InteractionManager.Priority.CRITICAL);
+			InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT, InteractionManager.Priority.CRITICAL);
+			InteractionManager.push(new InteractionManager.PacketEvent(new UpdateSelectedSlotC2SPacket(playerInventory.selectedSlot), InteractionManager.TICK_WAITER), InteractionManager.Priority.CRITICAL);
 			if (hand == Hand.MAIN_HAND) {
-				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT);
+				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT, InteractionManager.Priority.CRITICAL);
 			}
 		} else {
 			if (hand == Hand.OFF_HAND) {
-				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT);
+				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT, InteractionManager.Priority.CRITICAL);
 			}
 			playerInventory.selectedSlot = hotbarSlot;
-			InteractionManager.push(new InteractionManager.PacketEvent(new UpdateSelectedSlotC2SPacket(hotbarSlot), InteractionManager.TICK_WAITER));
+			InteractionManager.push(new InteractionManager.PacketEvent(new UpdateSelectedSlotC2SPacket(hotbarSlot), InteractionManager.TICK_WAITER), InteractionManager.Priority.CRITICAL);
 			if (hand == Hand.OFF_HAND) {
-				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT);
+				InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT, InteractionManager.Priority.CRITICAL);
 			}
 		}
 	}
@@ -215,17 +215,17 @@ public class SlotRefiller {
 	private static void refillFromInventory(Hand hand, int inventorySlot) {
 		if (hand == Hand.OFF_HAND) {
 			ItemStack mainHandStack = playerInventory.getMainHandStack();
-			InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT);
+			InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT, InteractionManager.Priority.CRITICAL);
 
 			pickFromInventory(inventorySlot);
 
-			InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT);
+			InteractionManager.push(InteractionManager.SWAP_WITH_OFFHAND_EVENT, InteractionManager.Priority.CRITICAL);
 			// Sometimes the swapping visually duplicates the stack on the client,
 			// so we're manually fixing the visuals here
 			InteractionManager.push(() -> {
 				playerInventory.setStack(playerInventory.selectedSlot, mainHandStack);
 				return InteractionManager.DUMMY_WAITER;
-			});
+			}, InteractionManager.Priority.CRITICAL);
 		} else {
 			pickFromInventory(inventorySlot);
 		}
@@ -235,7 +235,7 @@ public class SlotRefiller {
 		InteractionManager.push(new InteractionManager.PacketEvent(
 				new PickFromInventoryC2SPacket(inventorySlot),
 				triggerType -> triggerType == InteractionManager.TriggerType.HELD_ITEM_CHANGE
-		));
+		), InteractionManager.Priority.CRITICAL);
 	}
 
 	static {
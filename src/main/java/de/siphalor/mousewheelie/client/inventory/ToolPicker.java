@@ -19,11 +19,11 @@ package de.siphalor.mousewheelie.client.inventory;
 
 import de.siphalor.mousewheelie.MWConfig;
 import de.siphalor.mousewheelie.client.MWClient;
+import de.siphalor.mousewheelie.client.network.InteractionManager;
 import lombok.RequiredArgsConstructor;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.block.BlockState;
-import net.minecraft.client.MinecraftClient;
 import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.network.packet.c2s.play.PickFromInventoryC2SPacket;
@@ -88,8 +88,11 @@ public class ToolPicker {
 		setLastToolPickSlot(index);
 
 		if (index != -1 && index != inventory.selectedSlot) {
-			PickFromInventoryC2SPacket packet = new PickFromInventoryC2SPacket(index);
-			MinecraftClient.getInstance().getNetworkHandler().sendPacket(packet);
+			// Queue the pick so it doesn't interfere with refills or clicks in progress
+			InteractionManager.push(new InteractionManager.PacketEvent(
+					new PickFromInventoryC2SPacket(index),
+					triggerType -> triggerType == InteractionManager.TriggerType.HELD_ITEM_CHANGE
+			), InteractionManager.Priority.CRITICAL);
 			return true;
 		}
 		return false;
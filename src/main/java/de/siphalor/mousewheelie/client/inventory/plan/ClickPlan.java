@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.plan;
+
+import de.siphalor.mousewheelie.client.network.ClickEventFactory;
+import de.siphalor.mousewheelie.client.network.ClickProgram;
+import de.siphalor.mousewheelie.client.network.InteractionManager;
+import de.siphalor.mousewheelie.client.network.InteractionOperation;
+import de.siphalor.mousewheelie.client.util.inject.ISlot;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.screen.ingame.CreativeInventoryScreen;
+import net.minecraft.screen.ScreenHandler;
+import net.minecraft.screen.slot.Slot;
+import net.minecraft.screen.slot.SlotActionType;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of clicks that is planned as a whole, before it is handed over to the {@link InteractionManager}.
+ * This allows to optimize the clicks in the context of each other.
+ */
+@Environment(EnvType.CLIENT)
+public class ClickPlan {
+	private final InventoryModel initialState;
+	private final InventoryModel predictedState;
+	private boolean predicted = true;
+	private List<PlannedClick> clicks = new ArrayList<>();
+
+	/**
+	 * Creates a new plan and captures the current state of the screen handler.
+	 *
+	 * @param screenHandler the screen handler the clicks will be executed in
+	 */
+	public ClickPlan(ScreenHandler screenHandler) {
+		this(InventoryModel.of(screenHandler));
+	}
+
+	/**
+	 * Creates a new plan starting from the given state.
+	 *
+	 * @param initialState the state of the screen handler before the clicks
+	 */
+	public ClickPlan(InventoryModel initialState) {
+		this.initialState = initialState;
+		this.predictedState = initialState.copy();
+	}
+
+	/**
+	 * Appends a click to the plan and simulates it on the predicted state.
+	 *
+	 * @return whether the state after the click is still known
+	 */
+	public boolean add(Slot slot, int button, SlotActionType actionType) {
+		PlannedClick click = new PlannedClick(slot, ((ISlot) slot).mouseWheelie_getIdInContainer(), button, actionType);
+		clicks.add(click);
+		if (predicted) {
+			predicted = click.simulate(predictedState);
+		}
+		return predicted;
+	}
+
+	/**
+	 * Appends all clicks of another plan that starts from the predicted state of this one.
+	 *
+	 * @return whether the state after the clicks is still known
+	 */
+	public boolean append(ClickPlan other) {
+		for (PlannedClick click : other.clicks) {
+			add(click.slot(), click.button(), click.actionType());
+		}
+		return predicted;
+	}
+
+	public int size() {
+		return clicks.size();
+	}
+
+	public boolean isEmpty() {
+		return clicks.isEmpty();
+	}
+
+	public List<PlannedClick> getClicks() {
+		return clicks;
+	}
+
+	public InventoryModel getInitialState() {
+		return initialState;
+	}
+
+	/**
+	 * Whether the state after all clicks in this plan is known.
+	 */
+	public boolean isPredicted() {
+		return predicted;
+	}
+
+	/**
+	 * Gets the state the screen handler will be in after all clicks in this plan.
+	 * Must not be modified.
+	 *
+	 * @return the predicted state or <code>null</code> if it is unknown
+	 * @see #isPredicted()
+	 */
+	public @Nullable InventoryModel getPredictedState() {
+		return predicted ? predictedState : null;
+	}
+
+	/**
+	 * Removes redundant clicks from this plan and rewrites click sequences into shorter ones.
+	 *
+	 * @see ClickPlanOptimizer
+	 */
+	public void optimize() {
+		clicks = ClickPlanOptimizer.optimize(clicks, initialState);
+	}
+
+	/**
+	 * Optimizes this plan and pushes all clicks to the {@link InteractionManager} as one {@link InteractionManager.Priority#BULK} operation.
+	 *
+	 * @param clickEventFactory the factory to create the click events with
+	 * @return a handle to the operation
+	 */
+	public InteractionOperation push(ClickEventFactory clickEventFactory) {
+		return push(clickEventFactory, InteractionManager.Priority.BULK);
+	}
+
+	/**
+	 * Optimizes this plan and pushes all clicks to the {@link InteractionManager} as one operation.
+	 * If the server supports it, the clicks are executed there as a single {@link ClickProgram},
+	 * unless the screen uses slots that the server would handle differently.
+	 *
+	 * @param clickEventFactory the factory to create the click events with
+	 * @param priority          the lane to queue the clicks in
+	 * @return a handle to the operation
+	 */
+	public InteractionOperation push(ClickEventFactory clickEventFactory, InteractionManager.Priority priority) {
+		optimize();
+		List<InteractionManager.InteractionEvent> events = new ArrayList<>(clicks.size());
+		List<PlannedClick> sentClicks = new ArrayList<>(clicks.size());
+		for (PlannedClick click : clicks) {
+			InteractionManager.InteractionEvent event = clickEventFactory.create(click.slot(), click.button(), click.actionType());
+			if (event != null) {
+				events.add(event);
+				sentClicks.add(click);
+			}
+		}
+		clicks.clear();
+
+		if (sentClicks.size() > 1 && canRunAsProgram(sentClicks.size())) {
+			return InteractionManager.push(createProgram(sentClicks), priority);
+		}
+		return InteractionManager.pushAll(events, priority);
+	}
+
+	private boolean canRunAsProgram(int size) {
+		// Slots that the screen handles specially would behave differently when clicked directly in the screen handler on the server
+		if (initialState.hasUnpredictableSlots()) {
+			return false;
+		}
+		// The creative inventory uses its own slot ids, which don't match the player screen handler on the server
+		if (MinecraftClient.getInstance().currentScreen instanceof CreativeInventoryScreen) {
+			return false;
+		}
+		return ClickProgram.isAvailable(size);
+	}
+
+	private ClickProgram createProgram(List<PlannedClick> clicks) {
+		int[] slotIds = new int[clicks.size()];
+		int[] buttons = new int[clicks.size()];
+		SlotActionType[] actionTypes = new SlotActionType[clicks.size()];
+		for (int i = 0; i < clicks.size(); i++) {
+			PlannedClick click = clicks.get(i);
+			slotIds[i] = click.slotId();
+			buttons[i] = click.button();
+			actionTypes[i] = click.actionType();
+		}
+		return new ClickProgram(initialState.getSyncId(), slotIds, buttons, actionTypes);
+	}
+
+	public record PlannedClick(Slot slot, int slotId, int button, SlotActionType actionType) {
+		public boolean simulate(InventoryModel model) {
+			return ClickSimulator.simulate(model, slotId, button, actionType);
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.plan;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.entity.player.PlayerInventory;
+import net.minecraft.screen.slot.SlotActionType;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Peephole optimizer for {@link ClickPlan}s.
+ * <p>
+ * The optimizer slides a small window over the clicks and simulates them on an {@link InventoryModel}.
+ * If a shorter subsequence of the window leads to the same state, the window is replaced by it.
+ * This removes e.g. clicks that don't change anything or picking up a stack and putting it back down right away.
+ * Otherwise, the window is rewritten into up to {@value #MAX_REWRITE_LENGTH} other clicks on the same slots if they lead to the same state,
+ * e.g. three pickup clicks that exchange a stack with the hotbar become a single swap.
+ * Optimization stops at the first click that can't be simulated, as the state afterwards is unknown.
+ */
+@Environment(EnvType.CLIENT)
+public class ClickPlanOptimizer {
+	private static final int MAX_WINDOW = 5;
+	private static final int MAX_PASSES = 4;
+	private static final int MAX_REWRITE_LENGTH = 2;
+	/**
+	 * For each window size, the bit masks of all proper subsequences, ordered by their length.
+	 */
+	private static final int[][] SUBSEQUENCES = new int[MAX_WINDOW + 1][];
+
+	static {
+		for (int size = 0; size <= MAX_WINDOW; size++) {
+			IntList masks = new IntArrayList();
+			int full = (1 << size) - 1;
+			for (int length = 0; length < size; length++) {
+				for (int mask = 0; mask < full; mask++) {
+					if (Integer.bitCount(mask) == length) {
+						masks.add(mask);
+					}
+				}
+			}
+			SUBSEQUENCES[size] = masks.toIntArray();
+		}
+	}
+
+	private ClickPlanOptimizer() {}
+
+	public static List<ClickPlan.PlannedClick> optimize(List<ClickPlan.PlannedClick> clicks, InventoryModel initialState) {
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			List<ClickPlan.PlannedClick> optimized = optimizePass(clicks, initialState);
+			if (optimized.size() == clicks.size()) {
+				return optimized;
+			}
+			clicks = optimized;
+		}
+		return clicks;
+	}
+
+	private static List<ClickPlan.PlannedClick> optimizePass(List<ClickPlan.PlannedClick> clicks, InventoryModel initialState) {
+		InventoryModel state = initialState.copy();
+		InventoryModel target = initialState.copy();
+		InventoryModel candidate = initialState.copy();
+		InventoryModel prefix = initialState.copy();
+		List<ClickPlan.PlannedClick> result = new ArrayList<>(clicks.size());
+
+		int index = 0;
+		windows:
+		while (index < clicks.size()) {
+			int run = getSimulatableRun(clicks, index);
+			if (run == 0) {
+				// The outcome of this click is unknown, so there's no point in continuing
+				result.addAll(clicks.subList(index, clicks.size()));
+				break;
+			}
+
+			for (int size = run; size >= 1; size--) {
+				target.copyFrom(state);
+				if (!simulate(target, clicks, index, size, (1 << size) - 1)) {
+					continue;
+				}
+
+				for (int mask : SUBSEQUENCES[size]) {
+					candidate.copyFrom(state);
+					if (simulate(candidate, clicks, index, size, mask) && candidate.stateEquals(target)) {
+						for (int i = 0; i < size; i++) {
+							if ((mask & 1 << i) != 0) {
+								result.add(clicks.get(index + i));
+							}
+						}
+						state.copyFrom(target);
+						index += size;
+						continue windows;
+					}
+				}
+			}
+
+			// Deleting clicks is preferred, as rewrites may make use of different actions than planned
+			for (int size = run; size >= 2; size--) {
+				target.copyFrom(state);
+				if (!simulate(target, clicks, index, size, (1 << size) - 1)) {
+					continue;
+				}
+
+				List<ClickPlan.PlannedClick> rewrite = findRewrite(state, target, candidate, prefix, clicks.subList(index, index + size));
+				if (rewrite != null) {
+					result.addAll(rewrite);
+					state.copyFrom(target);
+					index += size;
+					continue windows;
+				}
+			}
+
+			ClickPlan.PlannedClick click = clicks.get(index);
+			result.add(click);
+			index++;
+			if (!click.simulate(state)) {
+				result.addAll(clicks.subList(index, clicks.size()));
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Searches for a shorter sequence of clicks on the slots of the window that leads to the same state.
+	 *
+	 * @return the replacement clicks or <code>null</code> if there's none
+	 */
+	private static @Nullable List<ClickPlan.PlannedClick> findRewrite(
+			InventoryModel state, InventoryModel target, InventoryModel candidate, InventoryModel prefix, List<ClickPlan.PlannedClick> window
+	) {
+		List<ClickPlan.PlannedClick> alphabet = getRewriteAlphabet(state, window);
+		for (ClickPlan.PlannedClick click : alphabet) {
+			candidate.copyFrom(state);
+			if (click.simulate(candidate) && candidate.stateEquals(target)) {
+				return List.of(click);
+			}
+		}
+		if (Math.min(MAX_REWRITE_LENGTH, window.size() - 1) < 2) {
+			return null;
+		}
+		for (ClickPlan.PlannedClick first : alphabet) {
+			prefix.copyFrom(state);
+			if (!first.simulate(prefix)) {
+				continue;
+			}
+			for (ClickPlan.PlannedClick second : alphabet) {
+				candidate.copyFrom(prefix);
+				if (second.simulate(candidate) && candidate.stateEquals(target)) {
+					return List.of(first, second);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the clicks a window may be rewritten into: left and right clicks on each of its slots
+	 * and swaps between them, if one of them is in the hotbar or the off hand.
+	 */
+	private static List<ClickPlan.PlannedClick> getRewriteAlphabet(InventoryModel state, List<ClickPlan.PlannedClick> window) {
+		List<ClickPlan.PlannedClick> slots = new ArrayList<>(window.size());
+		IntList slotIds = new IntArrayList(window.size());
+		for (ClickPlan.PlannedClick click : window) {
+			if (click.slotId() >= 0 && !slotIds.contains(click.slotId())) {
+				slotIds.add(click.slotId());
+				slots.add(click);
+			}
+		}
+
+		List<ClickPlan.PlannedClick> alphabet = new ArrayList<>(slots.size() * 3);
+		for (ClickPlan.PlannedClick slot : slots) {
+			alphabet.add(new ClickPlan.PlannedClick(slot.slot(), slot.slotId(), 0, SlotActionType.PICKUP));
+			alphabet.add(new ClickPlan.PlannedClick(slot.slot(), slot.slotId(), 1, SlotActionType.PICKUP));
+		}
+		for (ClickPlan.PlannedClick other : slots) {
+			int button = getSwapButton(state, other.slotId());
+			if (button < 0) {
+				continue;
+			}
+			for (ClickPlan.PlannedClick slot : slots) {
+				if (slot != other) {
+					alphabet.add(new ClickPlan.PlannedClick(slot.slot(), slot.slotId(), button, SlotActionType.SWAP));
+				}
+			}
+		}
+		return alphabet;
+	}
+
+	private static int getSwapButton(InventoryModel state, int slotId) {
+		for (int i = 0; i < PlayerInventory.getHotbarSize(); i++) {
+			if (state.getPlayerSlot(i) == slotId) {
+				return i;
+			}
+		}
+		if (state.getPlayerSlot(PlayerInventory.OFF_HAND_SLOT) == slotId) {
+			return PlayerInventory.OFF_HAND_SLOT;
+		}
+		return -1;
+	}
+
+	private static int getSimulatableRun(List<ClickPlan.PlannedClick> clicks, int start) {
+		int end = Math.min(clicks.size(), start + MAX_WINDOW);
+		for (int i = start; i < end; i++) {
+			if (!ClickSimulator.canSimulate(clicks.get(i).actionType())) {
+				return i - start;
+			}
+		}
+		return end - start;
+	}
+
+	private static boolean simulate(InventoryModel model, List<ClickPlan.PlannedClick> clicks, int start, int size, int mask) {
+		for (int i = 0; i < size; i++) {
+			if ((mask & 1 << i) != 0 && !clicks.get(start + i).simulate(model)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
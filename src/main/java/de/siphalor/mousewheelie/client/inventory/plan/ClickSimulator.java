@@ -0,0 +1,344 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.plan;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.entity.player.PlayerInventory;
+import net.minecraft.screen.ScreenHandler;
+import net.minecraft.screen.slot.SlotActionType;
+
+import static de.siphalor.mousewheelie.client.inventory.plan.InventoryModel.EMPTY;
+
+/**
+ * Simulates the effects of clicks on an {@link InventoryModel}, following the vanilla {@link ScreenHandler#onSlotClick} logic.
+ * <p>
+ * Quick moves depend on the specific screen handler and are only simulated for slots with known {@link InventoryModel#getQuickMoveTargets(int) targets}.
+ */
+@Environment(EnvType.CLIENT)
+public class ClickSimulator {
+	private ClickSimulator() {}
+
+	public static boolean canSimulate(SlotActionType actionType) {
+		return switch (actionType) {
+			case PICKUP, QUICK_MOVE, SWAP, THROW, PICKUP_ALL, QUICK_CRAFT -> true;
+			default -> false;
+		};
+	}
+
+	/**
+	 * Applies a click to the model.
+	 *
+	 * @param model      the model to modify
+	 * @param slot       the id of the clicked slot
+	 * @param button     the mouse button
+	 * @param actionType the kind of click
+	 * @return whether the click could be simulated, the state of the model is undefined otherwise
+	 */
+	public static boolean simulate(InventoryModel model, int slot, int button, SlotActionType actionType) {
+		if (slot >= model.size() || slot >= 0 && !model.isPredictable(slot)) {
+			return false;
+		}
+		if (actionType == SlotActionType.QUICK_CRAFT) {
+			return quickCraft(model, slot, button);
+		}
+		if (model.getQuickCraftStage() != 0) {
+			// Any other click cancels dragging
+			model.endQuickCraft();
+			return true;
+		}
+		return switch (actionType) {
+			case PICKUP -> button != 0 && button != 1 || pickup(model, slot, button);
+			case QUICK_MOVE -> button != 0 && button != 1 || quickMove(model, slot);
+			case SWAP -> swap(model, slot, button);
+			case THROW -> slot < 0 || model.getCursorKind() != EMPTY || throwStack(model, slot, button);
+			case PICKUP_ALL -> slot < 0 || pickupAll(model, slot, button);
+			default -> false;
+		};
+	}
+
+	private static boolean pickup(InventoryModel model, int slot, int button) {
+		int cursorKind = model.getCursorKind();
+		int cursorCount = model.getCursorCount();
+		if (slot == ScreenHandler.EMPTY_SPACE_SLOT_INDEX) {
+			// Drop the cursor stack
+			model.setCursor(cursorKind, button == 0 ? 0 : cursorCount - 1);
+			return true;
+		}
+		if (slot < 0) {
+			return true;
+		}
+
+		int kind = model.getKind(slot);
+		int count = model.getCount(slot);
+		if (!model.isPredictableKind(kind) || !model.isPredictableKind(cursorKind)) {
+			return false;
+		}
+		if (kind == EMPTY) {
+			if (cursorKind != EMPTY) {
+				insert(model, slot, button == 0 ? cursorCount : 1);
+			}
+		} else if (model.canTake(slot)) {
+			if (cursorKind == EMPTY) {
+				int amount = take(model, slot, button == 0 ? count : (count + 1) / 2, Integer.MAX_VALUE);
+				model.setCursor(kind, amount);
+			} else if (model.canInsert(slot, cursorKind)) {
+				if (kind == cursorKind) {
+					insert(model, slot, button == 0 ? cursorCount : 1);
+				} else if (cursorCount <= model.getMaxCount(slot, cursorKind)) {
+					model.setSlot(slot, cursorKind, cursorCount);
+					model.setCursor(kind, count);
+				}
+			} else if (kind == cursorKind) {
+				int amount = take(model, slot, count, model.getCursorMaxCount() - cursorCount);
+				model.setCursor(cursorKind, cursorCount + amount);
+			}
+		}
+		return true;
+	}
+
+	private static boolean quickMove(InventoryModel model, int slot) {
+		if (slot < 0) {
+			return true;
+		}
+		int[] targets = model.getQuickMoveTargets(slot);
+		int kind = model.getKind(slot);
+		if (kind == EMPTY || !model.canTake(slot)) {
+			return true;
+		}
+		if (targets == null) {
+			return false;
+		}
+		// Vanilla repeats the quick move as long as it makes progress
+		while (model.getKind(slot) != EMPTY && insertInto(model, slot, targets)) ;
+		return true;
+	}
+
+	/**
+	 * Follows the vanilla <code>insertItem</code> logic by first merging into existing stacks and then using the first empty slot.
+	 */
+	private static boolean insertInto(InventoryModel model, int origin, int[] targets) {
+		int kind = model.getKind(origin);
+		int remaining = model.getCount(origin);
+		boolean moved = false;
+		if (model.getKindStack(kind).isStackable()) {
+			for (int target : targets) {
+				if (remaining <= 0) {
+					break;
+				}
+				if (model.getKind(target) == kind) {
+					int count = model.getCount(target);
+					int amount = Math.min(remaining, model.getMaxCount(target, kind) - count);
+					if (amount > 0) {
+						model.setSlot(target, kind, count + amount);
+						remaining -= amount;
+						moved = true;
+					}
+				}
+			}
+		}
+		if (remaining > 0) {
+			for (int target : targets) {
+				if (model.getKind(target) == EMPTY && model.canInsert(target, kind)) {
+					int amount = Math.min(remaining, model.getMaxCount(target, kind));
+					model.setSlot(target, kind, amount);
+					remaining -= amount;
+					moved = true;
+					break;
+				}
+			}
+		}
+		model.setSlot(origin, kind, remaining);
+		return moved;
+	}
+
+	private static boolean swap(InventoryModel model, int slot, int button) {
+		if (!(button >= 0 && button < PlayerInventory.getHotbarSize() || button == PlayerInventory.OFF_HAND_SLOT)) {
+			return true;
+		}
+		int playerSlot = model.getPlayerSlot(button);
+		if (slot < 0 || playerSlot == EMPTY || playerSlot == slot) {
+			return false;
+		}
+		int kind = model.getKind(slot);
+		int count = model.getCount(slot);
+		int playerKind = model.getKind(playerSlot);
+		int playerCount = model.getCount(playerSlot);
+		if (playerKind == EMPTY) {
+			if (kind != EMPTY && model.canTake(slot)) {
+				model.setSlot(playerSlot, kind, count);
+				model.setSlot(slot, EMPTY, 0);
+			}
+		} else if (kind == EMPTY) {
+			if (model.canInsert(slot, playerKind)) {
+				int amount = Math.min(playerCount, model.getMaxCount(slot, playerKind));
+				model.setSlot(slot, playerKind, amount);
+				model.setSlot(playerSlot, playerKind, playerCount - amount);
+			}
+		} else if (model.canTake(slot) && model.canInsert(slot, playerKind)) {
+			if (playerCount > model.getMaxCount(slot, playerKind)) {
+				// The displaced stack gets inserted somewhere into the player inventory
+				return false;
+			}
+			model.setSlot(slot, playerKind, playerCount);
+			model.setSlot(playerSlot, kind, count);
+		}
+		return true;
+	}
+
+	private static boolean throwStack(InventoryModel model, int slot, int button) {
+		int kind = model.getKind(slot);
+		int count = model.getCount(slot);
+		if (kind != EMPTY) {
+			take(model, slot, button == 0 ? 1 : count, Integer.MAX_VALUE);
+		}
+		return true;
+	}
+
+	private static boolean pickupAll(InventoryModel model, int slot, int button) {
+		int cursorKind = model.getCursorKind();
+		if (cursorKind == EMPTY || model.getKind(slot) != EMPTY && model.canTake(slot)) {
+			return true;
+		}
+		int maxCount = model.getCursorMaxCount();
+		int start = button == 0 ? 0 : model.size() - 1;
+		int step = button == 0 ? 1 : -1;
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = start; i >= 0 && i < model.size() && model.getCursorCount() < maxCount; i += step) {
+				if (model.getKind(i) != cursorKind || !model.canTake(i) || !model.isCollectable(i)) {
+					continue;
+				}
+				if (!model.isPredictable(i)) {
+					return false;
+				}
+				int count = model.getCount(i);
+				if (pass != 0 || count != model.getKindStack(cursorKind).getMaxCount()) {
+					int amount = take(model, i, count, maxCount - model.getCursorCount());
+					model.setCursor(cursorKind, model.getCursorCount() + amount);
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean quickCraft(InventoryModel model, int slot, int button) {
+		int previousStage = model.getQuickCraftStage();
+		int stage = ScreenHandler.unpackQuickCraftStage(button);
+		if (previousStage != 1 || stage != 2) {
+			if (previousStage != stage) {
+				model.endQuickCraft();
+				return true;
+			}
+		}
+		int cursorKind = model.getCursorKind();
+		if (cursorKind == EMPTY) {
+			model.endQuickCraft();
+			return true;
+		}
+		if (!model.isPredictableKind(cursorKind)) {
+			return false;
+		}
+
+		if (stage == 0) {
+			int quickCraftButton = ScreenHandler.unpackQuickCraftButton(button);
+			// Creative-only distribution is not simulated
+			if (quickCraftButton == 2) {
+				return false;
+			}
+			if (quickCraftButton == 0 || quickCraftButton == 1) {
+				model.startQuickCraft(quickCraftButton);
+			} else {
+				model.endQuickCraft();
+			}
+		} else if (stage == 1) {
+			if (slot >= 0 && canQuickCraftInto(model, slot, model.getCursorCount() > model.getQuickCraftSlots().size())
+					&& !model.getQuickCraftSlots().contains(slot)) {
+				model.getQuickCraftSlots().add(slot);
+			}
+		} else if (stage == 2) {
+			IntArrayList slots = model.getQuickCraftSlots();
+			if (slots.size() == 1) {
+				int target = slots.getInt(0);
+				int quickCraftButton = model.getQuickCraftButton();
+				model.endQuickCraft();
+				return pickup(model, target, quickCraftButton);
+			}
+			if (!slots.isEmpty()) {
+				int cursorCount = model.getCursorCount();
+				int remaining = cursorCount;
+				int perSlot = model.getQuickCraftButton() == 0 ? cursorCount / slots.size() : 1;
+				for (int i = 0; i < slots.size(); i++) {
+					int target = slots.getInt(i);
+					if (!canQuickCraftInto(model, target, cursorCount >= slots.size())) {
+						continue;
+					}
+					int count = model.getCount(target);
+					int newCount = Math.min(perSlot + count, model.getMaxCount(target, cursorKind));
+					remaining -= newCount - count;
+					model.setSlot(target, cursorKind, newCount);
+				}
+				model.setCursor(cursorKind, remaining);
+			}
+			model.endQuickCraft();
+		}
+		return true;
+	}
+
+	private static boolean canQuickCraftInto(InventoryModel model, int slot, boolean enoughItems) {
+		int cursorKind = model.getCursorKind();
+		int kind = model.getKind(slot);
+		if (kind != EMPTY && (kind != cursorKind || model.getCount(slot) > model.getKindStack(kind).getMaxCount())) {
+			return false;
+		}
+		return model.canInsert(slot, cursorKind) && enoughItems && model.isQuickCraftable(slot);
+	}
+
+	private static void insert(InventoryModel model, int slot, int amount) {
+		int cursorKind = model.getCursorKind();
+		if (!model.canInsert(slot, cursorKind)) {
+			return;
+		}
+		int cursorCount = model.getCursorCount();
+		int count = model.getCount(slot);
+		int moved = Math.min(Math.min(amount, cursorCount), model.getMaxCount(slot, cursorKind) - count);
+		if (moved <= 0) {
+			return;
+		}
+		model.setSlot(slot, cursorKind, count + moved);
+		model.setCursor(cursorKind, cursorCount - moved);
+	}
+
+	/**
+	 * Follows the vanilla <code>Slot#tryTakeStackRange</code> logic.
+	 *
+	 * @return the amount that has been taken from the slot
+	 */
+	private static int take(InventoryModel model, int slot, int min, int max) {
+		if (!model.canTake(slot)) {
+			return 0;
+		}
+		int count = model.getCount(slot);
+		if (!model.canTakePartial(slot) && max < count) {
+			return 0;
+		}
+		int amount = Math.min(Math.min(min, max), count);
+		model.setSlot(slot, model.getKind(slot), count - amount);
+		return amount;
+	}
+}
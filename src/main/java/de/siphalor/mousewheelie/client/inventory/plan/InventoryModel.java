@@ -0,0 +1,376 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.plan;
+
+import de.siphalor.mousewheelie.client.util.inject.ISlot;
+import de.siphalor.mousewheelie.common.sort.StackKindStrategy;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenCustomHashMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.entity.player.PlayerInventory;
+import net.minecraft.item.BundleItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.screen.ScreenHandler;
+import net.minecraft.screen.slot.CraftingResultSlot;
+import net.minecraft.screen.slot.Slot;
+import net.minecraft.screen.slot.TradeOutputSlot;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A compact model of the contents of a screen handler.
+ * Stacks are reduced to an item kind id and a count, where equal kinds mean that the stacks can be combined.
+ * Slots are indexed by their id in the container.
+ * <p>
+ * Copies of a model share the slot metadata and kind tables, only the contents are copied.
+ */
+@Environment(EnvType.CLIENT)
+public class InventoryModel {
+	public static final int EMPTY = -1;
+
+	private final Layout layout;
+	private final int[] slotKinds;
+	private final int[] slotCounts;
+	private int cursorKind = EMPTY;
+	private int cursorCount;
+	private int quickCraftStage;
+	private int quickCraftButton;
+	private final IntArrayList quickCraftSlots = new IntArrayList();
+
+	private InventoryModel(Layout layout) {
+		this.layout = layout;
+		this.slotKinds = new int[layout.slots.size()];
+		this.slotCounts = new int[layout.slots.size()];
+		Arrays.fill(slotKinds, EMPTY);
+	}
+
+	public static InventoryModel of(ScreenHandler screenHandler) {
+		PlayerEntity player = MinecraftClient.getInstance().player;
+		List<Slot> slots = screenHandler.slots;
+		Layout layout = new Layout(screenHandler.syncId, slots, player);
+		for (int i = 0; i < slots.size(); i++) {
+			Slot slot = slots.get(i);
+			if (screenHandler.canInsertIntoSlot(ItemStack.EMPTY, slot) && slot.canTakePartial(player)) {
+				layout.collectable.set(i);
+			}
+			if (screenHandler.canInsertIntoSlot(slot)) {
+				layout.quickCraftable.set(i);
+			}
+			// Taking from these slots has side effects on other slots
+			if (slot instanceof CraftingResultSlot || slot instanceof TradeOutputSlot) {
+				layout.unpredictable.set(i);
+			}
+			if (slot.inventory instanceof PlayerInventory) {
+				int index = ((ISlot) slot).mouseWheelie_getIndexInInv();
+				if (index >= 0 && index < layout.playerSlots.length) {
+					layout.playerSlots[index] = i;
+				}
+			}
+		}
+
+		InventoryModel model = new InventoryModel(layout);
+		for (int i = 0; i < slots.size(); i++) {
+			ItemStack stack = slots.get(i).getStack();
+			model.setSlot(i, model.kindOf(stack), stack.getCount());
+		}
+		ItemStack cursorStack = screenHandler.getCursorStack();
+		model.setCursor(model.kindOf(cursorStack), cursorStack.getCount());
+		return model;
+	}
+
+	/**
+	 * Gets the kind id for the given stack and registers it if necessary.
+	 *
+	 * @param stack the stack
+	 * @return the kind id or {@link #EMPTY}
+	 */
+	public int kindOf(ItemStack stack) {
+		if (stack.isEmpty()) {
+			return EMPTY;
+		}
+		int kind = layout.kindIds.getInt(stack);
+		if (kind == EMPTY) {
+			kind = layout.kinds.size();
+			ItemStack representative = stack.copyWithCount(1);
+			layout.kinds.add(representative);
+			layout.kindIds.put(representative, kind);
+		}
+		return kind;
+	}
+
+	public ItemStack getKindStack(int kind) {
+		return layout.kinds.get(kind);
+	}
+
+	/**
+	 * Whether the behavior of stacks of the given kind can be predicted.
+	 * Bundles for example have their own click handling.
+	 *
+	 * @param kind the kind id or {@link #EMPTY}
+	 * @return whether clicks with this kind can be simulated
+	 */
+	public boolean isPredictableKind(int kind) {
+		return kind == EMPTY || !(getKindStack(kind).getItem() instanceof BundleItem);
+	}
+
+	public int getSyncId() {
+		return layout.syncId;
+	}
+
+	public int size() {
+		return slotKinds.length;
+	}
+
+	public int getKind(int slot) {
+		return slotKinds[slot];
+	}
+
+	public int getCount(int slot) {
+		return slotCounts[slot];
+	}
+
+	/**
+	 * Creates a stack matching the modelled contents of the given slot.
+	 *
+	 * @param slot the slot id
+	 * @return a new stack
+	 */
+	public ItemStack getStack(int slot) {
+		int kind = slotKinds[slot];
+		if (kind == EMPTY) {
+			return ItemStack.EMPTY;
+		}
+		return getKindStack(kind).copyWithCount(slotCounts[slot]);
+	}
+
+	/**
+	 * Gets the maximum amount of items of the given kind that fit into the given slot.
+	 *
+	 * @param slot the slot id
+	 * @param kind the kind id
+	 * @return the maximum count
+	 */
+	public int getMaxCount(int slot, int kind) {
+		return layout.slots.get(slot).getMaxItemCount(getKindStack(kind));
+	}
+
+	public boolean canInsert(int slot, int kind) {
+		return layout.slots.get(slot).canInsert(getKindStack(kind));
+	}
+
+	public boolean canTake(int slot) {
+		return layout.slots.get(slot).canTakeItems(layout.player);
+	}
+
+	public boolean canTakePartial(int slot) {
+		return layout.slots.get(slot).canTakePartial(layout.player);
+	}
+
+	/**
+	 * Whether double-clicking may collect items from the given slot.
+	 */
+	public boolean isCollectable(int slot) {
+		return layout.collectable.get(slot);
+	}
+
+	/**
+	 * Whether items may be distributed into the given slot by dragging.
+	 */
+	public boolean isQuickCraftable(int slot) {
+		return layout.quickCraftable.get(slot);
+	}
+
+	public boolean isPredictable(int slot) {
+		return !layout.unpredictable.get(slot);
+	}
+
+	/**
+	 * Whether any slot handles clicks in a way that can't be simulated.
+	 *
+	 * @return whether there are unpredictable slots
+	 */
+	public boolean hasUnpredictableSlots() {
+		return !layout.unpredictable.isEmpty();
+	}
+
+	/**
+	 * Marks a slot as unpredictable, e.g. because the screen handles clicks on it specially.
+	 * Clicks on such slots can't be simulated.
+	 *
+	 * @param slot the slot id
+	 */
+	public void setUnpredictable(int slot) {
+		layout.unpredictable.set(slot);
+	}
+
+	/**
+	 * Gets the slot id of the given player inventory index.
+	 *
+	 * @param index the index in the player inventory
+	 * @return the slot id or {@link #EMPTY} if the screen handler doesn't contain it
+	 */
+	public int getPlayerSlot(int index) {
+		if (index < 0 || index >= layout.playerSlots.length) {
+			return EMPTY;
+		}
+		return layout.playerSlots[index];
+	}
+
+	/**
+	 * Sets the slots that quick moving from the given slot will try to move items to.
+	 *
+	 * @param slot    the slot id
+	 * @param targets the target slot ids in the order they're filled
+	 */
+	public void setQuickMoveTargets(int slot, int[] targets) {
+		layout.quickMoveTargets[slot] = targets;
+	}
+
+	/**
+	 * Gets the quick move targets of the given slot.
+	 *
+	 * @param slot the slot id
+	 * @return the target slot ids or <code>null</code> if the quick move behavior is unknown
+	 */
+	public int @Nullable [] getQuickMoveTargets(int slot) {
+		return layout.quickMoveTargets[slot];
+	}
+
+	public void setSlot(int slot, int kind, int count) {
+		if (kind == EMPTY || count <= 0) {
+			slotKinds[slot] = EMPTY;
+			slotCounts[slot] = 0;
+		} else {
+			slotKinds[slot] = kind;
+			slotCounts[slot] = count;
+		}
+	}
+
+	public int getCursorKind() {
+		return cursorKind;
+	}
+
+	public int getCursorCount() {
+		return cursorCount;
+	}
+
+	public int getCursorMaxCount() {
+		return cursorKind == EMPTY ? 0 : getKindStack(cursorKind).getMaxCount();
+	}
+
+	public void setCursor(int kind, int count) {
+		if (kind == EMPTY || count <= 0) {
+			cursorKind = EMPTY;
+			cursorCount = 0;
+		} else {
+			cursorKind = kind;
+			cursorCount = count;
+		}
+	}
+
+	public int getQuickCraftStage() {
+		return quickCraftStage;
+	}
+
+	public int getQuickCraftButton() {
+		return quickCraftButton;
+	}
+
+	public IntArrayList getQuickCraftSlots() {
+		return quickCraftSlots;
+	}
+
+	public void startQuickCraft(int button) {
+		quickCraftStage = 1;
+		quickCraftButton = button;
+		quickCraftSlots.clear();
+	}
+
+	public void endQuickCraft() {
+		quickCraftStage = 0;
+		quickCraftSlots.clear();
+	}
+
+	public InventoryModel copy() {
+		InventoryModel copy = new InventoryModel(layout);
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	/**
+	 * Overwrites the state of this model with the one of another model of the same screen handler.
+	 *
+	 * @param other the model to copy from
+	 */
+	public void copyFrom(InventoryModel other) {
+		System.arraycopy(other.slotKinds, 0, slotKinds, 0, slotKinds.length);
+		System.arraycopy(other.slotCounts, 0, slotCounts, 0, slotCounts.length);
+		cursorKind = other.cursorKind;
+		cursorCount = other.cursorCount;
+		quickCraftStage = other.quickCraftStage;
+		quickCraftButton = other.quickCraftButton;
+		quickCraftSlots.clear();
+		quickCraftSlots.addAll(other.quickCraftSlots);
+	}
+
+	/**
+	 * Checks whether both models are in the same state.
+	 *
+	 * @param other the other model
+	 * @return whether the states are equal
+	 */
+	public boolean stateEquals(InventoryModel other) {
+		return cursorKind == other.cursorKind && cursorCount == other.cursorCount
+				&& quickCraftStage == other.quickCraftStage
+				&& (quickCraftStage == 0 || quickCraftButton == other.quickCraftButton && quickCraftSlots.equals(other.quickCraftSlots))
+				&& Arrays.equals(slotKinds, other.slotKinds) && Arrays.equals(slotCounts, other.slotCounts);
+	}
+
+	/**
+	 * The static information about the screen handler that is shared between all copies of a model.
+	 */
+	private static class Layout {
+		private final int syncId;
+		private final List<Slot> slots;
+		private final PlayerEntity player;
+		private final List<ItemStack> kinds = new ArrayList<>();
+		private final Object2IntMap<ItemStack> kindIds = new Object2IntOpenCustomHashMap<>(StackKindStrategy.INSTANCE);
+		private final BitSet collectable = new BitSet();
+		private final BitSet quickCraftable = new BitSet();
+		private final BitSet unpredictable = new BitSet();
+		private final int[] playerSlots = new int[PlayerInventory.OFF_HAND_SLOT + 1];
+		private final int[][] quickMoveTargets;
+
+		private Layout(int syncId, List<Slot> slots, PlayerEntity player) {
+			this.syncId = syncId;
+			this.slots = slots;
+			this.player = player;
+			this.quickMoveTargets = new int[slots.size()][];
+			kindIds.defaultReturnValue(EMPTY);
+			Arrays.fill(playerSlots, EMPTY);
+		}
+	}
+}
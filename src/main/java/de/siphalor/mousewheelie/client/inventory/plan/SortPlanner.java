@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package de.siphalor.mousewheelie.client.inventory.plan;
+
+import de.siphalor.mousewheelie.client.util.inject.ISlot;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.screen.slot.Slot;
+import net.minecraft.screen.slot.SlotActionType;
+
+import java.util.Arrays;
+
+import static de.siphalor.mousewheelie.client.inventory.plan.InventoryModel.EMPTY;
+
+/**
+ * Plans the clicks to rearrange slots into a target layout.
+ * <p>
+ * Stacks that are equal in kind and count are interchangeable, so the planner first matches them to their targets
+ * so that as many stacks as possible stay where they are.
+ * The remaining moves form chains and cycles, which are executed by carrying stacks around on the cursor.
+ * <p>
+ * Some moves can't be done by a single click, most notably putting a partial stack on a full stack of the same kind,
+ * which just does nothing. Such a conflict is either resolved by parking the cursor stack in a free slot until the chain is done,
+ * or by swapping the stacks through the emptied start slot of the chain.
+ * Every chain is planned with both workarounds, and every cycle additionally from each of its members as the start,
+ * as starting right after a conflict turns it into a simple placement.
+ * All candidates are simulated and the one with the fewest clicks is used.
+ */
+@Environment(EnvType.CLIENT)
+public class SortPlanner {
+	private final ClickPlan plan;
+	private final Slot[] slots;
+	private final int[] slotIds;
+	private final int[] targetKinds;
+	private final int[] targetCounts;
+	/**
+	 * Maps each slot index to the slot index its stack has to move to, or -1 if it stays.
+	 */
+	private final int[] destinations;
+
+	private SortPlanner(ClickPlan plan, Slot[] slots, int[] sortedIds) {
+		this.plan = plan;
+		this.slots = slots;
+		InventoryModel state = plan.getPredictedState();
+		this.slotIds = new int[slots.length];
+		this.targetKinds = new int[slots.length];
+		this.targetCounts = new int[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			slotIds[i] = ((ISlot) slots[i]).mouseWheelie_getIdInContainer();
+		}
+		for (int i = 0; i < slots.length; i++) {
+			targetKinds[i] = state.getKind(slotIds[sortedIds[i]]);
+			targetCounts[i] = state.getCount(slotIds[sortedIds[i]]);
+		}
+		this.destinations = matchDestinations(state);
+	}
+
+	/**
+	 * Adds the clicks to rearrange the given slots to the plan.
+	 * If this fails, the plan may contain some of the clicks.
+	 *
+	 * @param plan      the plan, its predicted state must be known
+	 * @param slots     the slots to rearrange
+	 * @param sortedIds maps each slot index to the index of the slot whose stack should end up there
+	 * @return whether the plan could be completed
+	 */
+	public static boolean plan(ClickPlan plan, Slot[] slots, int[] sortedIds) {
+		if (!plan.isPredicted() || plan.getPredictedState().getCursorKind() != EMPTY) {
+			return false;
+		}
+		return new SortPlanner(plan, slots, sortedIds).run();
+	}
+
+	private static long key(int kind, int count) {
+		return (long) kind << 32 | count & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Matches the current stacks to the target positions, preferring stacks that are already in place.
+	 */
+	private int[] matchDestinations(InventoryModel state) {
+		int size = slots.length;
+		int[] result = new int[size];
+		Arrays.fill(result, -1);
+		boolean[] filled = new boolean[size];
+		Long2ObjectMap<IntList> openTargets = new Long2ObjectOpenHashMap<>();
+		for (int i = 0; i < size; i++) {
+			if (targetKinds[i] == state.getKind(slotIds[i]) && targetCounts[i] == state.getCount(slotIds[i])) {
+				filled[i] = true;
+			} else if (targetKinds[i] != EMPTY) {
+				openTargets.computeIfAbsent(key(targetKinds[i], targetCounts[i]), k -> new IntArrayList()).add(i);
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			int kind = state.getKind(slotIds[i]);
+			if (kind == EMPTY || filled[i]) {
+				continue;
+			}
+			IntList targets = openTargets.get(key(kind, state.getCount(slotIds[i])));
+			if (targets == null || targets.isEmpty()) {
+				continue;
+			}
+			result[i] = targets.removeInt(targets.size() - 1);
+		}
+		return result;
+	}
+
+	private boolean run() {
+		int size = slots.length;
+		int[] sources = new int[size];
+		Arrays.fill(sources, -1);
+		for (int i = 0; i < size; i++) {
+			if (destinations[i] >= 0) {
+				sources[destinations[i]] = i;
+			}
+		}
+
+		boolean[] done = new boolean[size];
+		// Chains first: they start at a stack that nothing moves onto
+		for (int i = 0; i < size; i++) {
+			if (destinations[i] >= 0 && sources[i] < 0 && !done[i]) {
+				if (!runCheapest(IntList.of(i), done)) {
+					return false;
+				}
+			}
+		}
+		// Everything left are cycles
+		for (int i = 0; i < size; i++) {
+			if (destinations[i] >= 0 && !done[i]) {
+				if (!runCheapest(getCycleStarts(i), done)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets all members of a cycle, beginning right after a conflicting move, so that ties are resolved in favor of that start.
+	 */
+	private IntList getCycleStarts(int member) {
+		InventoryModel state = plan.getPredictedState();
+		InventoryModel scratch = state.copy();
+		int first = member;
+		int current = member;
+		do {
+			int next = destinations[current];
+			if (!movesCleanly(state, scratch, current, next)) {
+				first = next;
+				break;
+			}
+			current = next;
+		} while (current != member);
+
+		IntList starts = new IntArrayList();
+		current = first;
+		do {
+			starts.add(current);
+			current = destinations[current];
+		} while (current != first);
+		return starts;
+	}
+
+	/**
+	 * Checks whether clicking the destination with the stack of the origin on the cursor swaps both stacks.
+	 */
+	private boolean movesCleanly(InventoryModel state, InventoryModel scratch, int origin, int destination) {
+		scratch.copyFrom(state);
+		scratch.setCursor(state.getKind(slotIds[origin]), state.getCount(slotIds[origin]));
+		scratch.setSlot(slotIds[origin], EMPTY, 0);
+		return ClickSimulator.simulate(scratch, slotIds[destination], 0, SlotActionType.PICKUP)
+				&& isSwapped(scratch, destination, state.getKind(slotIds[origin]), state.getCount(slotIds[origin]), state.getKind(slotIds[destination]), state.getCount(slotIds[destination]));
+	}
+
+	private boolean isSwapped(InventoryModel model, int destination, int kind, int count, int previousKind, int previousCount) {
+		return model.getKind(slotIds[destination]) == kind && model.getCount(slotIds[destination]) == count
+				&& model.getCursorKind() == previousKind && model.getCursorCount() == previousCount;
+	}
+
+	/**
+	 * Plans the chain from each of the given starts with each workaround and adds the one with the fewest clicks to the plan.
+	 */
+	private boolean runCheapest(IntList starts, boolean[] done) {
+		Chain best = null;
+		for (int i = 0; i < starts.size(); i++) {
+			for (Workaround workaround : Workaround.values()) {
+				Chain chain = new Chain(workaround, done);
+				if (chain.run(starts.getInt(i)) && (best == null || chain.plan.size() < best.plan.size())) {
+					best = chain;
+				}
+			}
+		}
+		if (best == null) {
+			return false;
+		}
+		System.arraycopy(best.done, 0, done, 0, done.length);
+		return plan.append(best.plan);
+	}
+
+	/**
+	 * The ways to move a stack onto a slot that a single click can't swap it with.
+	 */
+	private enum Workaround {
+		/**
+		 * Put the cursor stack aside in a free slot, pick up the destination and move the stack in once the chain is finished.
+		 */
+		PARK,
+		/**
+		 * Click through the emptied start slot of the chain to swap the cursor stack with the destination right away.
+		 */
+		DANCE
+	}
+
+	/**
+	 * A candidate plan for a single chain or cycle, starting from the current state of the plan.
+	 */
+	private class Chain {
+		private final Workaround preferred;
+		private final ClickPlan plan;
+		private final InventoryModel state;
+		private final InventoryModel scratch;
+		private final boolean[] done;
+		private final IntList parked = new IntArrayList();
+
+		private Chain(Workaround preferred, boolean[] done) {
+			this.preferred = preferred;
+			this.plan = new ClickPlan(SortPlanner.this.plan.getPredictedState().copy());
+			this.state = plan.getPredictedState();
+			this.scratch = state.copy();
+			this.done = done.clone();
+		}
+
+		private boolean run(int start) {
+			if (!click(start) || state.getCursorKind() == EMPTY) {
+				return false;
+			}
+			int current = start;
+			while (true) {
+				int destination = destinations[current];
+				done[current] = true;
+				int kind = state.getCursorKind();
+				int count = state.getCursorCount();
+				int destinationKind = state.getKind(slotIds[destination]);
+				int destinationCount = state.getCount(slotIds[destination]);
+
+				if (!moveCursorTo(start, destination, kind, count, destinationKind, destinationCount)) {
+					return false;
+				}
+				if (destination == start || destinationKind == EMPTY || done[destination] || destinations[destination] < 0) {
+					break;
+				}
+				current = destination;
+			}
+			return unpark();
+		}
+
+		/**
+		 * Moves the cursor stack into the destination and picks up the stack that was there.
+		 */
+		private boolean moveCursorTo(int start, int destination, int kind, int count, int destinationKind, int destinationCount) {
+			scratch.copyFrom(state);
+			if (ClickSimulator.simulate(scratch, slotIds[destination], 0, SlotActionType.PICKUP)
+					&& isSwapped(scratch, destination, kind, count, destinationKind, destinationCount)) {
+				return click(destination);
+			}
+
+			boolean canDance = state.getKind(slotIds[start]) == EMPTY && verifyDance(start, destination, kind, count, destinationKind, destinationCount);
+			int parkSlot = findParkSlot();
+			if (canDance && (preferred == Workaround.DANCE || parkSlot < 0)) {
+				return click(start) && click(destination) && click(start) && click(destination) && click(start);
+			}
+			if (parkSlot >= 0) {
+				parked.add(parkSlot);
+				parked.add(destination);
+				return click(parkSlot) && click(destination);
+			}
+			return false;
+		}
+
+		private boolean verifyDance(int working, int destination, int kind, int count, int destinationKind, int destinationCount) {
+			scratch.copyFrom(state);
+			for (int slot : new int[]{working, destination, working, destination, working}) {
+				if (!ClickSimulator.simulate(scratch, slotIds[slot], 0, SlotActionType.PICKUP)) {
+					return false;
+				}
+			}
+			return scratch.getKind(slotIds[working]) == EMPTY && isSwapped(scratch, destination, kind, count, destinationKind, destinationCount);
+		}
+
+		/**
+		 * Finds an empty slot that is supposed to stay empty and isn't in use for parking yet.
+		 */
+		private int findParkSlot() {
+			for (int i = slots.length - 1; i >= 0; i--) {
+				if (state.getKind(slotIds[i]) == EMPTY && targetKinds[i] == EMPTY && !isParkSlot(i)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private boolean isParkSlot(int slot) {
+			for (int i = 0; i < parked.size(); i += 2) {
+				if (parked.getInt(i) == slot) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean unpark() {
+			for (int i = 0; i < parked.size(); i += 2) {
+				if (!click(parked.getInt(i)) || !click(parked.getInt(i + 1))) {
+					return false;
+				}
+			}
+			parked.clear();
+			return state.getCursorKind() == EMPTY;
+		}
+
+		private boolean click(int slot) {
+			return plan.add(slots[slot], 0, SlotActionType.PICKUP);
+		}
+	}
+}
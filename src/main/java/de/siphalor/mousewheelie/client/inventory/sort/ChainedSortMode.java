@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.sort;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Sorts by one mode first and uses another mode for stacks that have equal keys.
+ * The keys of both modes are combined into a single dense rank, so no comparators are nested.
+ *
+ * @see SortMode#then(SortMode)
+ */
+@Environment(EnvType.CLIENT)
+public class ChainedSortMode implements SortMode {
+	private final SortMode primary;
+	private final SortMode secondary;
+
+	public ChainedSortMode(SortMode primary, SortMode secondary) {
+		this.primary = primary;
+		this.secondary = secondary;
+	}
+
+	@Override
+	public void extractKeys(ItemStack[] stacks, long[] keys, SortContext context) {
+		primary.extractKeys(stacks, keys, context);
+		long[] primaryRanks = PackedKeySort.rank(keys);
+		secondary.extractKeys(stacks, keys, context);
+		long[] secondaryRanks = PackedKeySort.rank(keys);
+		// Both ranks are smaller than the amount of stacks, so this can't overflow for any realistic inventory
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = primaryRanks[i] * keys.length + secondaryRanks[i];
+		}
+	}
+}
@@ -19,33 +19,38 @@ package de.siphalor.mousewheelie.client.inventory.sort;
 
 import de.siphalor.mousewheelie.MWConfig;
 import de.siphalor.mousewheelie.client.inventory.ContainerScreenHelper;
+import de.siphalor.mousewheelie.client.inventory.plan.ClickPlan;
+import de.siphalor.mousewheelie.client.inventory.plan.InventoryModel;
+import de.siphalor.mousewheelie.client.inventory.plan.SortPlanner;
 import de.siphalor.mousewheelie.client.network.InteractionManager;
 import de.siphalor.mousewheelie.client.network.MWClientNetworking;
-import de.siphalor.mousewheelie.client.util.CreativeSearchOrder;
-import de.siphalor.mousewheelie.client.util.ItemStackUtils;
-import de.siphalor.mousewheelie.client.util.StackMatcher;
 import de.siphalor.mousewheelie.client.util.inject.ISlot;
 import de.siphalor.mousewheelie.common.network.ReorderInventoryPayload;
-import it.unimi.dsi.fastutil.ints.IntArrays;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import de.siphalor.mousewheelie.common.network.SortInventoryPayload;
+import de.siphalor.mousewheelie.common.sort.ServerSorter;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.client.gui.screen.ingame.HandledScreen;
-import net.minecraft.item.Item;
-import net.minecraft.item.ItemGroups;
 import net.minecraft.item.ItemStack;
-import net.minecraft.registry.Registries;
 import net.minecraft.screen.slot.Slot;
 import net.minecraft.screen.slot.SlotActionType;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.concurrent.locks.Lock;
 
 @Environment(EnvType.CLIENT)
 public class InventorySorter {
 	private final ContainerScreenHelper<? extends HandledScreen<?>> screenHelper;
 	private final HandledScreen<?> containerScreen;
+	private final Slot originSlot;
+	/**
+	 * Sorts anew, in case the interactions stall while sorting.
+	 */
+	private Runnable replanner;
 	private Slot[] inventorySlots;
 	private final ItemStack[] stacks;
 
@@ -70,6 +75,7 @@ public class InventorySorter {
 	public InventorySorter(ContainerScreenHelper<? extends HandledScreen<?>> screenHelper, HandledScreen<?> containerScreen, Slot originSlot) {
 		this.screenHelper = screenHelper;
 		this.containerScreen = containerScreen;
+		this.originSlot = originSlot;
 
 		collectSlots(originSlot);
 
@@ -94,166 +100,139 @@ public class InventorySorter {
 		this.inventorySlots = slotsInScope.toArray(new Slot[0]);
 	}
 
-	private void combineStacks() {
-		ItemStack stack;
-		ArrayDeque<InteractionManager.InteractionEvent> clickEvents = new ArrayDeque<>();
-		for (int i = stacks.length - 1; i >= 0; i--) {
-			stack = stacks[i];
-			if (stack.isEmpty()) continue;
-			int stackSize = stack.getCount();
-			if (stackSize >= stack.getItem().getMaxCount()) continue;
-			clickEvents.add(screenHelper.createClickEvent(inventorySlots[i], 0, SlotActionType.PICKUP));
-			for (int j = 0; j < i; j++) {
-				ItemStack targetStack = stacks[j];
-				if (targetStack.isEmpty()) continue;
-				if (targetStack.getCount() >= targetStack.getItem().getMaxCount()) continue;
-				if (ItemStack.areItemsAndComponentsEqual(stack, targetStack)) {
-					int delta = targetStack.getItem().getMaxCount() - targetStack.getCount();
-					delta = Math.min(delta, stackSize);
-					stackSize -= delta;
-					targetStack.setCount(targetStack.getCount() + delta);
-					clickEvents.add(screenHelper.createClickEvent(inventorySlots[j], 0, SlotActionType.PICKUP));
-					if (stackSize <= 0) break;
-				}
+	/**
+	 * Merges partial stacks of the same kind, filling the earliest slots first.
+	 * Partial stacks are grouped by kind once, so every group is merged in a single pass from both ends.
+	 */
+	private void combineStacks(ClickPlan plan) {
+		int[] slotIds = new int[inventorySlots.length];
+		for (int i = 0; i < inventorySlots.length; i++) {
+			slotIds[i] = ((ISlot) inventorySlots[i]).mouseWheelie_getIdInContainer();
+		}
+
+		InventoryModel state = plan.getPredictedState();
+		if (state == null || state.getCursorKind() != InventoryModel.EMPTY) {
+			return;
+		}
+		Int2ObjectMap<IntArrayList> partialStacks = new Int2ObjectLinkedOpenHashMap<>();
+		for (int i = 0; i < slotIds.length; i++) {
+			int kind = state.getKind(slotIds[i]);
+			if (kind != InventoryModel.EMPTY && state.getCount(slotIds[i]) < state.getMaxCount(slotIds[i], kind)) {
+				partialStacks.computeIfAbsent(kind, k -> new IntArrayList()).add(i);
 			}
-			if (clickEvents.size() <= 1) {
-				clickEvents.clear();
-				continue;
+		}
+
+		for (IntArrayList group : partialStacks.values()) {
+			int target = 0;
+			for (int source = group.size() - 1; source > target && plan.isPredicted(); source--) {
+				int sourceIndex = group.getInt(source);
+				plan.add(inventorySlots[sourceIndex], 0, SlotActionType.PICKUP);
+				while (plan.isPredicted() && state.getCursorKind() != InventoryModel.EMPTY && target < source) {
+					int targetIndex = group.getInt(target);
+					int cursorCount = state.getCursorCount();
+					plan.add(inventorySlots[targetIndex], 0, SlotActionType.PICKUP);
+					if (state.getCursorCount() == cursorCount
+							|| state.getCount(slotIds[targetIndex]) >= state.getMaxCount(slotIds[targetIndex], state.getKind(slotIds[targetIndex]))) {
+						target++;
+					}
+				}
+				if (plan.isPredicted() && state.getCursorKind() != InventoryModel.EMPTY) {
+					// Put the remaining items back
+					plan.add(inventorySlots[sourceIndex], 0, SlotActionType.PICKUP);
+				}
 			}
-			InteractionManager.pushAll(clickEvents);
-			InteractionManager.triggerSend(InteractionManager.TriggerType.GUI_CONFIRM);
-			clickEvents.clear();
-			if (stackSize > 0) {
-				InteractionManager.push(screenHelper.createClickEvent(inventorySlots[i], 0, SlotActionType.PICKUP));
-				stack.setCount(stackSize);
-			} else {
-				stacks[i] = ItemStack.EMPTY;
+		}
+
+		if (plan.isPredicted()) {
+			for (int i = 0; i < stacks.length; i++) {
+				stacks[i] = state.getStack(slotIds[i]);
 			}
 		}
 	}
 
 	public void sort(MWConfig.SortModes sortMode) {
+		sort(SortModeRegistry.of(sortMode));
+	}
+
+	/**
+	 * Combines and sorts the stacks.
+	 *
+	 * @param sortMode the mode to sort by or <code>null</code> to only combine stacks
+	 */
+	public void sort(@Nullable SortMode sortMode) {
 		if (inventorySlots.length <= 1) {
 			return;
 		}
 
-		combineStacks();
+		replanner = () -> new InventorySorter(screenHelper, containerScreen, originSlot).sort(sortMode);
+		if (MWConfig.serverAcceleratedSorting && sortOnServer(sortMode)) {
+			return;
+		}
+
+		ClickPlan plan = screenHelper.createClickPlan();
+		combineStacks(plan);
 		int[] sortIds = new int[stacks.length];
 		for (int i = 0; i < sortIds.length; i++) {
 			sortIds[i] = i;
 		}
 
-		switch (sortMode) {
-			case NONE -> {}
-			case ALPHABET -> {
-				String[] strings = new String[sortIds.length];
-				for (int i = 0; i < sortIds.length; i++) {
-					ItemStack stack = stacks[i];
-					strings[i] = stack.isEmpty() ? "" : stack.getName().getString();
-				}
-				
-				IntArrays.quickSort(sortIds, (a, b) -> {
-					if (strings[a].equals("")) {
-						if (strings[b].equals(""))
-							return 0;
-						return 1;
-					}
-					if (strings[b].equals("")) return -1;
-					int comp = strings[a].compareToIgnoreCase(strings[b]);
-					if (comp == 0) {
-						return ItemStackUtils.compareEqualItems(stacks[a], stacks[b]);
-					}
-					return comp;
-				});
-			}
-			case CREATIVE -> {
-				int[] sortValues = new int[sortIds.length];
-				if (MWConfig.optimizeCreativeSearchSort) {
-					Lock lock = CreativeSearchOrder.getReadLock();
-					lock.lock();
-					for (int i = 0; i < stacks.length; i++) {
-						sortValues[i] = CreativeSearchOrder.getStackSearchPosition(stacks[i]);
-					}
-					lock.unlock();
-				} else {
-					Collection<ItemStack> displayStacks = ItemGroups.getSearchGroup().getDisplayStacks();
-					List<ItemStack> displayStackList;
-					if (displayStacks instanceof List) {
-						displayStackList = (List<ItemStack>) displayStacks;
-					} else {
-						displayStackList = new ArrayList<>(displayStacks);
-					}
-					Object2IntMap<StackMatcher> lookup = new Object2IntOpenHashMap<>(stacks.length);
-					for (int i = 0; i < stacks.length; i++) {
-						final ItemStack stack = stacks[i];
-						sortValues[i] = lookup.computeIfAbsent(StackMatcher.of(stack), matcher -> {
-							int index = displayStackList.indexOf(matcher);
-							if (index == -1) {
-								return lookup.computeIfAbsent(StackMatcher.ignoreNbt(stack), matcher2 -> {
-									int plainIndex = displayStackList.indexOf(matcher2);
-									if (plainIndex == -1) {
-										return Integer.MAX_VALUE;
-									}
-									return plainIndex;
-								});
-							}
-							return index;
-						});
-					}
-				}
-				sortByValues(sortIds, stacks, sortValues);
-			}
-			case QUANTITY -> {
-				HashMap<Item, Integer> itemToAmountMap = new HashMap<>();
-				
-				for (ItemStack stack : stacks) {
-					if (stack.isEmpty()) continue;
-					if (!itemToAmountMap.containsKey(stack.getItem())) {
-						itemToAmountMap.put(stack.getItem(), stack.getCount());
-					} else {
-						itemToAmountMap.put(stack.getItem(), itemToAmountMap.get(stack.getItem()) + stack.getCount());
-					}
-				}
-				
-				IntArrays.quickSort(sortIds, (a, b) -> {
-					ItemStack stack = stacks[a];
-					ItemStack stack2 = stacks[b];
-					if (stack.isEmpty()) {
-						return stack2.isEmpty() ? 0 : 1;
-					}
-					if (stack2.isEmpty()) {
-						return -1;
-					}
-					Integer amountA = itemToAmountMap.get(stack.getItem());
-					Integer amountB = itemToAmountMap.get(stack2.getItem());
-					int cmp = Integer.compare(amountB, amountA);
-					if (cmp != 0) {
-						return cmp;
-					}
-					return ItemStackUtils.compareEqualItems(stack, stack2);
-				});
-			}
-			case RAW_ID -> {
-				int[] rawIds = Arrays.stream(stacks).mapToInt(stack -> stack.isEmpty() ? Integer.MAX_VALUE : Registries.ITEM.getRawId(stack.getItem())).toArray();
-				sortByValues(sortIds, stacks, rawIds);
-			}
+		if (sortMode != null) {
+			sortByKeys(sortIds, sortMode);
 		}
 
-		if (MWConfig.serverAcceleratedSorting && MWClientNetworking.canSendReorderPacket()) {
+		if (isNoOp(sortIds)) {
+			plan.push(screenHelper::createClickEvent).setReplanner(replanner);
+		} else if (MWConfig.serverAcceleratedSorting && MWClientNetworking.canSendReorderPacket()) {
+			plan.push(screenHelper::createClickEvent).setReplanner(replanner);
 			this.reorderInventory(sortIds);
 		} else {
-			this.sortOnClient(sortIds);
+			this.sortOnClient(plan, sortIds);
+			plan.push(screenHelper::createClickEvent).setReplanner(replanner);
+		}
+	}
+
+	private void sortByKeys(int[] sortIds, SortMode sortMode) {
+		long[] keys = new long[stacks.length];
+		sortMode.extractKeys(stacks, keys, new SortContext(containerScreen, Arrays.asList(inventorySlots)));
+		for (int i = 0; i < stacks.length; i++) {
+			if (stacks[i].isEmpty()) {
+				keys[i] = Long.MAX_VALUE;
+			}
 		}
+
+		PackedKeySort.sort(sortIds, keys, stacks, new StackSortKeys(stacks));
 	}
-	
-	private static void sortByValues(int[] sortIds, ItemStack[] stacks, int[] values) {
-		IntArrays.quickSort(sortIds, (a, b) -> {
-			int cmp = Integer.compare(values[a], values[b]);
-			if (cmp != 0) {
-				return cmp;
+
+	/**
+	 * Checks whether the sort wouldn't change anything, because every slot would end up with an equal stack.
+	 */
+	private boolean isNoOp(int[] sortedIds) {
+		for (int i = 0; i < sortedIds.length; i++) {
+			if (sortedIds[i] != i && !ItemStack.areEqual(stacks[sortedIds[i]], stacks[i])) {
+				return false;
 			}
-			return ItemStackUtils.compareEqualItems(stacks[a], stacks[b]);
-		});
+		}
+		return true;
+	}
+
+	/**
+	 * Lets the server merge and sort the slots, if it advertised support for the sort mode.
+	 *
+	 * @return whether the sort has been handed to the server
+	 */
+	protected boolean sortOnServer(@Nullable SortMode sortMode) {
+		Identifier modeId = sortMode == null ? ServerSorter.NONE : SortModeRegistry.getId(sortMode);
+		if (modeId == null || !MWClientNetworking.canSendSortPacket(modeId)) {
+			return false;
+		}
+		int[] slotIds = new int[inventorySlots.length];
+		for (int i = 0; i < inventorySlots.length; i++) {
+			slotIds[i] = ((ISlot) inventorySlots[i]).mouseWheelie_getIdInContainer();
+		}
+		int syncId = containerScreen.getScreenHandler().syncId;
+		InteractionManager.push(new InteractionManager.PayloadEvent(syncId, new SortInventoryPayload(syncId, slotIds, modeId)), InteractionManager.Priority.BULK)
+				.setReplanner(replanner);
+		return true;
 	}
 
 	protected void reorderInventory(int[] sortedIds) {
@@ -264,13 +243,43 @@ public class InventorySorter {
 			slotMappings[i * 2] = ((ISlot) from).mouseWheelie_getIdInContainer();
 			slotMappings[i * 2 + 1] = ((ISlot) to).mouseWheelie_getIdInContainer();
 		}
-		InteractionManager.push(() -> {
-			MWClientNetworking.send(new ReorderInventoryPayload(containerScreen.getScreenHandler().syncId, slotMappings));
-			return InteractionManager.TICK_WAITER;
-		});
+		int syncId = containerScreen.getScreenHandler().syncId;
+		InteractionManager.push(new InteractionManager.PayloadEvent(syncId, new ReorderInventoryPayload(syncId, slotMappings)), InteractionManager.Priority.BULK)
+				.setReplanner(replanner);
 	}
 
+	/**
+	 * @deprecated Use {@link #sortOnClient(ClickPlan, int[])} instead
+	 */
+	@Deprecated
 	protected void sortOnClient(int[] sortedIds) {
+		ClickPlan plan = screenHelper.createClickPlan();
+		sortOnClient(plan, sortedIds);
+		plan.push(screenHelper::createClickEvent);
+	}
+
+	protected void sortOnClient(ClickPlan plan, int[] sortedIds) {
+		InventoryModel state = plan.getPredictedState();
+		if (state != null) {
+			if (state.getCursorKind() != InventoryModel.EMPTY) {
+				// Neither approach can rearrange the slots with a stack on the cursor
+				return;
+			}
+			// Plan separately, so that a failed attempt doesn't leave partial clicks behind
+			ClickPlan sortPlan = new ClickPlan(state.copy());
+			if (SortPlanner.plan(sortPlan, inventorySlots, sortedIds)) {
+				plan.append(sortPlan);
+				return;
+			}
+		}
+		sortByCycles(plan, sortedIds);
+	}
+
+	/**
+	 * Follows the permutation cycles without knowledge of the predicted state.
+	 * Used when the plan can't be simulated or the planner finds no way to rearrange the slots.
+	 */
+	private void sortByCycles(ClickPlan plan, int[] sortedIds) {
 		ItemStack currentStack;
 		final int slotCount = stacks.length;
 
@@ -303,7 +312,7 @@ public class InventorySorter {
 
 			// This is where the action happens.
 			// Pick up the stack at the origin slot.
-			InteractionManager.push(screenHelper.createClickEvent(inventorySlots[sortedIds[i]], 0, SlotActionType.PICKUP));
+			plan.add(inventorySlots[sortedIds[i]], 0, SlotActionType.PICKUP);
 			doneSlashEmpty.set(slotCount + sortedIds[i]); // Mark the origin slot as empty (because we picked the stack up, duh)
 			currentStack = stacks[sortedIds[i]]; // Save the stack we're currently working with
 			Slot workingSlot = inventorySlots[sortedIds[i]]; // A slot that we can use when fiddling around with swapping stacks
@@ -324,11 +333,11 @@ public class InventorySorter {
 					if (currentStack.getCount() < stacks[id].getCount()) { // Clicking with a low stack on a full stack does nothing
 						// The workaround is: click working slot, click target slot, click working slot, click target slot, click working slot
 						Slot targetSlot = inventorySlots[id];
-						InteractionManager.push(screenHelper.createClickEvent(workingSlot, 0, SlotActionType.PICKUP));
-						InteractionManager.push(screenHelper.createClickEvent(targetSlot, 0, SlotActionType.PICKUP));
-						InteractionManager.push(screenHelper.createClickEvent(workingSlot, 0, SlotActionType.PICKUP));
-						InteractionManager.push(screenHelper.createClickEvent(targetSlot, 0, SlotActionType.PICKUP));
-						InteractionManager.push(screenHelper.createClickEvent(workingSlot, 0, SlotActionType.PICKUP));
+						plan.add(workingSlot, 0, SlotActionType.PICKUP);
+						plan.add(targetSlot, 0, SlotActionType.PICKUP);
+						plan.add(workingSlot, 0, SlotActionType.PICKUP);
+						plan.add(targetSlot, 0, SlotActionType.PICKUP);
+						plan.add(workingSlot, 0, SlotActionType.PICKUP);
 
 						currentStack = stacks[id];
 						doneSlashEmpty.set(id); // mark the current target as done
@@ -338,7 +347,7 @@ public class InventorySorter {
 				}
 
 				// swap the current stack with the target stack
-				InteractionManager.push(screenHelper.createClickEvent(inventorySlots[id], 0, SlotActionType.PICKUP));
+				plan.add(inventorySlots[id], 0, SlotActionType.PICKUP);
 				currentStack = stacks[id];
 				doneSlashEmpty.set(id); // mark the current target as done
 				// If the target that we just swapped with was empty before, then this breaks the chain.
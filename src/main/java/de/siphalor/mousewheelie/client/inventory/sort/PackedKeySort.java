@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.sort;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Sorts stacks by packing their sort key, count, custom name flag and index into single longs,
+ * which are then sorted with a radix sort.
+ * Only stacks that are still tied after that are compared with the full tie-break comparator.
+ */
+@Environment(EnvType.CLIENT)
+class PackedKeySort {
+	private PackedKeySort() {}
+
+	/**
+	 * Sorts the given ids.
+	 *
+	 * @param sortIds  the identity permutation, will be sorted
+	 * @param keys     the sort keys of the stacks, empty stacks must have the largest key
+	 * @param stacks   the stacks
+	 * @param tieBreak the comparator for stacks with equal keys
+	 */
+	static void sort(int[] sortIds, long[] keys, ItemStack[] stacks, StackSortKeys tieBreak) {
+		int size = sortIds.length;
+		long[] ranks = rank(keys);
+		int maxRank = 0;
+		int maxCount = 0;
+		for (int i = 0; i < size; i++) {
+			maxRank = Math.max(maxRank, (int) ranks[i]);
+			maxCount = Math.max(maxCount, stacks[i].getCount());
+		}
+
+		int indexBits = bitsFor(size - 1);
+		int countBits = bitsFor(maxCount);
+		int rankBits = bitsFor(maxRank);
+		if (rankBits + countBits + 1 + indexBits > 63) {
+			sortWithComparator(sortIds, ranks, tieBreak);
+			return;
+		}
+
+		long[] packed = new long[size];
+		for (int i = 0; i < size; i++) {
+			long value = ranks[i];
+			// Higher counts come first
+			value = value << countBits | (maxCount - stacks[i].getCount());
+			value = value << 1 | (tieBreak.hasCustomName(i) ? 1 : 0);
+			packed[i] = value << indexBits | i;
+		}
+		LongArrays.radixSort(packed);
+
+		long indexMask = (1L << indexBits) - 1;
+		for (int i = 0; i < size; i++) {
+			sortIds[i] = (int) (packed[i] & indexMask);
+		}
+
+		// Resolve the remaining ties by tooltip, color and damage
+		int runStart = 0;
+		for (int i = 1; i <= size; i++) {
+			if (i == size || packed[i] >>> indexBits != packed[runStart] >>> indexBits) {
+				if (i - runStart > 1) {
+					IntArrays.quickSort(sortIds, runStart, i, (a, b) -> {
+						int cmp = tieBreak.compare(a, b);
+						return cmp != 0 ? cmp : Integer.compare(a, b);
+					});
+				}
+				runStart = i;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the keys by their dense rank, so equal keys get equal ranks and the smallest key gets rank 0.
+	 *
+	 * @param keys the keys
+	 * @return a new array with the ranks
+	 */
+	static long[] rank(long[] keys) {
+		long[] distinct = keys.clone();
+		LongArrays.radixSort(distinct);
+		int distinctCount = 0;
+		for (int i = 0; i < distinct.length; i++) {
+			if (i == 0 || distinct[i] != distinct[distinctCount - 1]) {
+				distinct[distinctCount++] = distinct[i];
+			}
+		}
+		long[] ranks = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			ranks[i] = LongArrays.binarySearch(distinct, 0, distinctCount, keys[i]);
+		}
+		return ranks;
+	}
+
+	private static void sortWithComparator(int[] sortIds, long[] ranks, StackSortKeys tieBreak) {
+		IntArrays.quickSort(sortIds, (a, b) -> {
+			int cmp = Long.compare(ranks[a], ranks[b]);
+			if (cmp != 0) {
+				return cmp;
+			}
+			cmp = tieBreak.compare(a, b);
+			return cmp != 0 ? cmp : Integer.compare(a, b);
+		});
+	}
+
+	private static int bitsFor(int value) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(value));
+	}
+}
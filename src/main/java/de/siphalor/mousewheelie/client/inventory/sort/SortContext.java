@@ -27,7 +27,7 @@ import java.util.List;
 /**
  * Additional context for executing a sort.
  *
- * @see SortMode#sort(int[], ItemStack[], SortContext)
+ * @see SortMode#extractKeys(ItemStack[], long[], SortContext)
  */
 @Value
 public class SortContext {
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.sort;
+
+import de.siphalor.mousewheelie.client.util.StackMatcher;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.item.TooltipType;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.text.Text;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Caches the text based sort keys of stacks across sorts.
+ * Entries are keyed by item and components, so they're shared between stacks of different counts.
+ * <p>
+ * The cache is bounded by the approximate amount of characters stored and evicts the least recently used entries first.
+ * It has to be invalidated whenever the language or resources change, see {@link #invalidate()}.
+ */
+@Environment(EnvType.CLIENT)
+public class SortKeyCache {
+	private static final int MAX_WEIGHT = 1 << 20;
+	private static final int ENTRY_WEIGHT = 32;
+
+	private static final LinkedHashMap<StackMatcher, Entry> ENTRIES = new LinkedHashMap<>(256, 0.75F, true);
+	private static int weight;
+	private static Collator collator;
+
+	private SortKeyCache() {}
+
+	/**
+	 * Gets the display name of the given stack.
+	 *
+	 * @param stack a non-empty stack
+	 * @return the name as string
+	 */
+	public static String getName(ItemStack stack) {
+		return getEntry(stack).name;
+	}
+
+	/**
+	 * Gets a key to order the given stack by its display name according to the rules of the current game language.
+	 *
+	 * @param stack a non-empty stack
+	 * @return the collation key of the name
+	 */
+	public static CollationKey getNameKey(ItemStack stack) {
+		Entry entry = getEntry(stack);
+		if (entry.nameKey == null) {
+			synchronized (ENTRIES) {
+				if (collator == null) {
+					collator = createCollator();
+				}
+				entry.nameKey = collator.getCollationKey(entry.name);
+			}
+		}
+		return entry.nameKey;
+	}
+
+	/**
+	 * Gets the lines of the basic tooltip of the given stack.
+	 *
+	 * @param stack a non-empty stack
+	 * @return the tooltip lines as strings, must not be modified
+	 */
+	public static String[] getTooltip(ItemStack stack) {
+		Entry entry = getEntry(stack);
+		if (entry.tooltip == null) {
+			List<Text> lines = stack.getTooltip(Item.TooltipContext.DEFAULT, null, TooltipType.BASIC);
+			String[] tooltip = new String[lines.size()];
+			int tooltipWeight = 0;
+			for (int i = 0; i < tooltip.length; i++) {
+				tooltip[i] = lines.get(i).getString();
+				tooltipWeight += tooltip[i].length();
+			}
+			synchronized (ENTRIES) {
+				entry.tooltip = tooltip;
+				if (ENTRIES.get(entry.matcher) == entry) {
+					weight += tooltipWeight;
+					evict();
+				}
+			}
+		}
+		return entry.tooltip;
+	}
+
+	/**
+	 * Drops all cached keys.
+	 */
+	public static void invalidate() {
+		synchronized (ENTRIES) {
+			ENTRIES.clear();
+			weight = 0;
+			collator = null;
+		}
+	}
+
+	private static Entry getEntry(ItemStack stack) {
+		synchronized (ENTRIES) {
+			Entry entry = ENTRIES.get(StackMatcher.of(stack));
+			if (entry != null) {
+				return entry;
+			}
+		}
+		// The components of the stack may still change, so the key must be based on a copy
+		StackMatcher matcher = StackMatcher.of(stack.copyWithCount(1));
+		Entry entry = new Entry(matcher, stack.getName().getString());
+		synchronized (ENTRIES) {
+			ENTRIES.put(matcher, entry);
+			weight += entry.getWeight();
+			evict();
+		}
+		return entry;
+	}
+
+	private static Collator createCollator() {
+		String code = MinecraftClient.getInstance().getLanguageManager().getLanguage();
+		Collator result = Collator.getInstance(Locale.forLanguageTag(code.replace('_', '-')));
+		// Ignore case differences, like the previous case-insensitive comparison
+		result.setStrength(Collator.SECONDARY);
+		return result;
+	}
+
+	private static void evict() {
+		Iterator<Entry> iterator = ENTRIES.values().iterator();
+		while (weight > MAX_WEIGHT && iterator.hasNext()) {
+			weight -= iterator.next().getWeight();
+			iterator.remove();
+		}
+	}
+
+	private static class Entry {
+		private final StackMatcher matcher;
+		private final String name;
+		private CollationKey nameKey;
+		private String[] tooltip;
+
+		private Entry(StackMatcher matcher, String name) {
+			this.matcher = matcher;
+			this.name = name;
+		}
+
+		private int getWeight() {
+			// Account for the collation key, which is about as long as the name
+			int result = ENTRY_WEIGHT + name.length() * 2;
+			if (tooltip != null) {
+				for (String line : tooltip) {
+					result += line.length();
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.sort;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.item.ItemStack;
+
+/**
+ * A way of ordering the stacks in an inventory.
+ * <p>
+ * Sort modes don't compare stacks directly, instead they compute a primitive key for every stack.
+ * All modes then share the same sorting path: stacks are ordered by ascending keys,
+ * stacks with equal keys are ordered by count, name, tooltip, color and damage.
+ * Empty stacks are always sorted to the end.
+ *
+ * @see SortModeRegistry
+ */
+@Environment(EnvType.CLIENT)
+@FunctionalInterface
+public interface SortMode {
+	/**
+	 * Computes the sort keys for the given stacks.
+	 *
+	 * @param stacks  the stacks to sort
+	 * @param keys    the array to write the key of each stack to, the keys of empty stacks are ignored
+	 * @param context additional information about the sort
+	 */
+	void extractKeys(ItemStack[] stacks, long[] keys, SortContext context);
+
+	/**
+	 * Creates a mode that sorts by this mode first and by the given mode for equal keys.
+	 *
+	 * @param next the mode for equal keys
+	 * @return the chained mode
+	 */
+	default SortMode then(SortMode next) {
+		return new ChainedSortMode(this, next);
+	}
+}
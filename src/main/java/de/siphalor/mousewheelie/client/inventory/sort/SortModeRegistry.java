@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.sort;
+
+import de.siphalor.mousewheelie.MWConfig;
+import de.siphalor.mousewheelie.MouseWheelie;
+import de.siphalor.mousewheelie.client.util.CreativeSearchOrder;
+import de.siphalor.mousewheelie.client.util.StackMatcher;
+import de.siphalor.mousewheelie.common.sort.ServerSorter;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemGroups;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.CollationKey;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Holds all known sort modes.
+ * Other mods may register their own modes here.
+ */
+@Environment(EnvType.CLIENT)
+public class SortModeRegistry {
+	private static final Map<Identifier, SortMode> MODES = new LinkedHashMap<>();
+
+	public static final SortMode ALPHABET = register(new Identifier(MouseWheelie.MOD_ID, "alphabet"), SortModeRegistry::extractAlphabetKeys);
+	public static final SortMode CREATIVE = register(new Identifier(MouseWheelie.MOD_ID, "creative"), SortModeRegistry::extractCreativeKeys);
+	/**
+	 * Sorts by the total amount per item, keeping different items with the same amount apart like the {@link ServerSorter} does.
+	 */
+	public static final SortMode QUANTITY = register(ServerSorter.QUANTITY, ((SortMode) SortModeRegistry::extractQuantityKeys).then(SortModeRegistry::extractRawIdKeys));
+	public static final SortMode RAW_ID = register(ServerSorter.RAW_ID, SortModeRegistry::extractRawIdKeys);
+
+	private SortModeRegistry() {}
+
+	/**
+	 * Registers a new sort mode.
+	 *
+	 * @param id   a unique id for the mode
+	 * @param mode the mode
+	 * @return the mode
+	 * @throws IllegalArgumentException if a mode with the same id is already registered
+	 */
+	public static <T extends SortMode> T register(Identifier id, T mode) {
+		if (MODES.putIfAbsent(id, mode) != null) {
+			throw new IllegalArgumentException("Sort mode " + id + " is already registered");
+		}
+		return mode;
+	}
+
+	public static @Nullable SortMode get(Identifier id) {
+		return MODES.get(id);
+	}
+
+	/**
+	 * Gets the id a mode has been registered with.
+	 *
+	 * @param mode the mode
+	 * @return the id or <code>null</code> if the mode isn't registered
+	 */
+	public static @Nullable Identifier getId(SortMode mode) {
+		for (Map.Entry<Identifier, SortMode> entry : MODES.entrySet()) {
+			if (entry.getValue() == mode) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	public static Set<Identifier> getIds() {
+		return Collections.unmodifiableSet(MODES.keySet());
+	}
+
+	/**
+	 * Gets the sort mode for a configured mode.
+	 *
+	 * @param mode the configured mode
+	 * @return the sort mode or <code>null</code> if no sorting should happen
+	 */
+	public static @Nullable SortMode of(MWConfig.SortModes mode) {
+		return switch (mode) {
+			case NONE -> null;
+			case ALPHABET -> ALPHABET;
+			case CREATIVE -> CREATIVE;
+			case QUANTITY -> QUANTITY;
+			case RAW_ID -> RAW_ID;
+		};
+	}
+
+	/**
+	 * Ranks the stacks by their names in the current language, so that the keys don't depend on the actual strings.
+	 */
+	private static void extractAlphabetKeys(ItemStack[] stacks, long[] keys, SortContext context) {
+		CollationKey[] nameKeys = new CollationKey[stacks.length];
+		int count = 0;
+		for (int i = 0; i < stacks.length; i++) {
+			if (!stacks[i].isEmpty()) {
+				nameKeys[count++] = SortKeyCache.getNameKey(stacks[i]);
+			}
+		}
+		CollationKey[] sorted = Arrays.copyOf(nameKeys, count);
+		Arrays.sort(sorted);
+		for (int i = 0; i < stacks.length; i++) {
+			if (!stacks[i].isEmpty()) {
+				int index = Arrays.binarySearch(sorted, SortKeyCache.getNameKey(stacks[i]));
+				// Move to the first of equal keys, so that equal names get the same key
+				while (index > 0 && sorted[index - 1].compareTo(sorted[index]) == 0) {
+					index--;
+				}
+				keys[i] = index;
+			}
+		}
+	}
+
+	/**
+	 * Uses the position of the stacks in the creative search tab, falling back to the position of their plain item.
+	 * Stacks that aren't in the tab at all go last.
+	 */
+	private static void extractCreativeKeys(ItemStack[] stacks, long[] keys, SortContext context) {
+		if (MWConfig.optimizeCreativeSearchSort) {
+			Lock lock = CreativeSearchOrder.getReadLock();
+			lock.lock();
+			try {
+				for (int i = 0; i < stacks.length; i++) {
+					keys[i] = CreativeSearchOrder.getStackSearchPosition(stacks[i]);
+				}
+			} finally {
+				lock.unlock();
+			}
+			return;
+		}
+
+		Collection<ItemStack> displayStacks = ItemGroups.getSearchGroup().getDisplayStacks();
+		List<ItemStack> displayStackList;
+		if (displayStacks instanceof List) {
+			displayStackList = (List<ItemStack>) displayStacks;
+		} else {
+			displayStackList = new ArrayList<>(displayStacks);
+		}
+		Object2IntMap<StackMatcher> lookup = new Object2IntOpenHashMap<>(stacks.length);
+		for (int i = 0; i < stacks.length; i++) {
+			final ItemStack stack = stacks[i];
+			keys[i] = lookup.computeIfAbsent(StackMatcher.of(stack), matcher -> {
+				int index = displayStackList.indexOf(matcher);
+				if (index == -1) {
+					return lookup.computeIfAbsent(StackMatcher.ignoreNbt(stack), matcher2 -> {
+						int plainIndex = displayStackList.indexOf(matcher2);
+						if (plainIndex == -1) {
+							return Integer.MAX_VALUE;
+						}
+						return plainIndex;
+					});
+				}
+				return index;
+			});
+		}
+	}
+
+	/**
+	 * Uses the total amount of each item in all given stacks, so that the most common items go first.
+	 */
+	private static void extractQuantityKeys(ItemStack[] stacks, long[] keys, SortContext context) {
+		Object2LongMap<Item> amounts = new Object2LongOpenHashMap<>();
+		for (ItemStack stack : stacks) {
+			if (!stack.isEmpty()) {
+				amounts.mergeLong(stack.getItem(), stack.getCount(), Long::sum);
+			}
+		}
+		for (int i = 0; i < stacks.length; i++) {
+			keys[i] = -amounts.getLong(stacks[i].getItem());
+		}
+	}
+
+	/**
+	 * Uses the raw registry ids of the items, which follow the registration order.
+	 */
+	private static void extractRawIdKeys(ItemStack[] stacks, long[] keys, SortContext context) {
+		for (int i = 0; i < stacks.length; i++) {
+			keys[i] = Registries.ITEM.getRawId(stacks[i].getItem());
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.inventory.sort;
+
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.component.type.DyedColorComponent;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.tag.ItemTags;
+
+import java.awt.Color;
+import java.util.BitSet;
+
+/**
+ * The tie-breaking keys of a set of stacks, used to order stacks that the sort mode considers equal.
+ * <p>
+ * Orders like {@link de.siphalor.mousewheelie.client.util.ItemStackUtils#compareEqualItems(ItemStack, ItemStack)},
+ * but every key is only computed once per stack instead of on every comparison.
+ * Tooltips are only fetched once they're needed and come from the {@link SortKeyCache}.
+ */
+@Environment(EnvType.CLIENT)
+public class StackSortKeys implements IntComparator {
+	private static final int DEFAULT_DYE_COLOR = -6265536;
+
+	private final ItemStack[] stacks;
+	private final int[] counts;
+	private final BitSet customNames;
+	private final BitSet dyeable;
+	/**
+	 * Hue, saturation and brightness of dyeable stacks, three entries per stack.
+	 */
+	private final float[] dyeColors;
+	private final int[] damages;
+	private final String[][] tooltips;
+
+	public StackSortKeys(ItemStack[] stacks) {
+		this.stacks = stacks;
+		int size = stacks.length;
+		this.counts = new int[size];
+		this.customNames = new BitSet(size);
+		this.dyeable = new BitSet(size);
+		this.dyeColors = new float[size * 3];
+		this.damages = new int[size];
+		this.tooltips = new String[size][];
+
+		float[] hsb = new float[3];
+		for (int i = 0; i < size; i++) {
+			ItemStack stack = stacks[i];
+			counts[i] = stack.getCount();
+			if (stack.isEmpty()) {
+				continue;
+			}
+			customNames.set(i, stack.contains(DataComponentTypes.CUSTOM_NAME));
+			if (stack.isIn(ItemTags.DYEABLE)) {
+				dyeable.set(i);
+				int color = DyedColorComponent.getColor(stack, DEFAULT_DYE_COLOR);
+				Color.RGBtoHSB(color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF, hsb);
+				System.arraycopy(hsb, 0, dyeColors, i * 3, 3);
+			}
+			damages[i] = stack.getDamage();
+		}
+	}
+
+	@Override
+	public int compare(int a, int b) {
+		int cmp = Integer.compare(counts[b], counts[a]);
+		if (cmp != 0) {
+			return cmp;
+		}
+		cmp = Boolean.compare(customNames.get(a), customNames.get(b));
+		if (cmp != 0) {
+			return cmp;
+		}
+		cmp = compareTooltips(getTooltip(a), getTooltip(b));
+		if (cmp != 0) {
+			return cmp;
+		}
+		if (dyeable.get(a)) {
+			for (int i = 0; i < 3; i++) {
+				cmp = Float.compare(dyeColors[a * 3 + i], dyeColors[b * 3 + i]);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+		}
+		return Integer.compare(damages[a], damages[b]);
+	}
+
+	public boolean hasCustomName(int index) {
+		return customNames.get(index);
+	}
+
+	private String[] getTooltip(int index) {
+		String[] tooltip = tooltips[index];
+		if (tooltip == null) {
+			ItemStack stack = stacks[index];
+			if (stack.isEmpty()) {
+				tooltip = new String[0];
+			} else {
+				tooltip = SortKeyCache.getTooltip(stack);
+			}
+			tooltips[index] = tooltip;
+		}
+		return tooltip;
+	}
+
+	private static int compareTooltips(String[] a, String[] b) {
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			int cmp = a[i].compareToIgnoreCase(b[i]);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return Integer.compare(a.length, b.length);
+	}
+}
@@ -30,6 +30,7 @@ import net.minecraft.client.network.ClientConnectionState;
 import net.minecraft.client.network.ClientPlayNetworkHandler;
 import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.network.ClientConnection;
+import net.minecraft.network.packet.s2c.play.InventoryS2CPacket;
 import net.minecraft.network.packet.s2c.play.ScreenHandlerSlotUpdateS2CPacket;
 import net.minecraft.network.packet.s2c.play.UpdateSelectedSlotS2CPacket;
 import net.minecraft.util.Hand;
@@ -59,7 +60,12 @@ public abstract class MixinClientPlayNetworkHandler extends ClientCommonNetworkH
 	@Inject(method = "onScreenHandlerSlotUpdate", at = @At("RETURN"))
 	public void onGuiSlotUpdateBegin(ScreenHandlerSlotUpdateS2CPacket packet, CallbackInfo callbackInfo) {
 		MWClient.lastUpdatedSlot = packet.getSlot();
-		InteractionManager.triggerSend(InteractionManager.TriggerType.CONTAINER_SLOT_UPDATE);
+		InteractionManager.onContainerUpdate(packet.getSyncId(), packet.getRevision(), false);
+	}
+
+	@Inject(method = "onInventory", at = @At("RETURN"))
+	public void onInventoryUpdated(InventoryS2CPacket packet, CallbackInfo callbackInfo) {
+		InteractionManager.onContainerUpdate(packet.getSyncId(), packet.getRevision(), true);
 	}
 
 	@Inject(method = "onScreenHandlerSlotUpdate", at = @At(value = "INVOKE", target = "Lnet/minecraft/screen/PlayerScreenHandler;setStackInSlot(IILnet/minecraft/item/ItemStack;)V", shift = At.Shift.BEFORE))
@@ -40,7 +40,7 @@ public abstract class MixinClientPlayerEntity extends AbstractClientPlayerEntity
 
 	@Inject(method = "closeScreen", at = @At("HEAD"))
 	public void onScreenClosed(CallbackInfo callbackInfo) {
-		InteractionManager.clear();
+		InteractionManager.cancelContainer(currentScreenHandler.syncId);
 	}
 
 	@Inject(method = "dropSelectedItem", at = @At("HEAD"))
@@ -116,7 +116,7 @@ public abstract class MixinRecipeBookWidget implements IRecipeBookWidget {
 			int resSlot = craftingScreenHandler.getCraftingResultSlotIndex();
 			RecipeEntry<?> recipe = recipesArea.getLastClickedRecipe();
 			if (canCraftMore(recipe)) {
-				InteractionManager.clear();
+				InteractionManager.cancelContainer(craftingScreenHandler.syncId);
 				InteractionManager.setWaiter((InteractionManager.TriggerType triggerType) -> MWClient.lastUpdatedSlot >= craftingScreenHandler.getCraftingSlotCount());
 			}
 			InteractionManager.pushClickEvent(craftingScreenHandler.syncId, resSlot, 0, MWClient.WHOLE_STACK_MODIFIER.isPressed() ? SlotActionType.QUICK_MOVE : SlotActionType.PICKUP);
@@ -153,7 +153,7 @@ public abstract class MixinRecipeBookWidget implements IRecipeBookWidget {
 						client.interactionManager.clickSlot(craftingScreenHandler.syncId, craftingScreenHandler.getCraftingResultSlotIndex(), 0, SlotActionType.THROW, client.player);
 						refreshResults(false);
 						return InteractionManager.TICK_WAITER;
-					}, true));
+					}));
 					callbackInfoReturnable.setReturnValue(true);
 				}
 			}
@@ -83,10 +83,10 @@ public abstract class MixinAbstractContainerScreen extends Screen implements ICo
 	@SuppressWarnings({"ConstantConditions", "unchecked"})
 	@Unique
 	private final Supplier<ContainerScreenHelper<HandledScreen<ScreenHandler>>> screenHelper = Suppliers.memoize(
-			() -> ContainerScreenHelper.of((HandledScreen<ScreenHandler>) (Object) this, (slot, data, slotActionType) -> new InteractionManager.CallbackEvent(() -> {
+			() -> ContainerScreenHelper.of((HandledScreen<ScreenHandler>) (Object) this, (slot, data, slotActionType) -> new InteractionManager.ContainerCallbackEvent(handler.syncId, () -> {
 				onMouseClick(slot, ((ISlot) slot).mouseWheelie_getIdInContainer(), data, slotActionType);
-				return InteractionManager.TICK_WAITER;
-			}, true))
+				return InteractionManager.CLICK_WAITER;
+			}))
 	);
 
 	@Unique
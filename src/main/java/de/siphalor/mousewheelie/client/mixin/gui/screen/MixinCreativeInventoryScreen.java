@@ -95,10 +95,10 @@ public abstract class MixinCreativeInventoryScreen extends AbstractInventoryScre
 			Slot hoverSlot = this.mouseWheelie_getSlotAt(mouseX, mouseY);
 			if (hoverSlot != null) {
 				ContainerScreenHelper.of(this, (slot, data, slotActionType) ->
-						new InteractionManager.CallbackEvent(() -> {
+						new InteractionManager.ContainerCallbackEvent(handler.syncId, () -> {
 							onMouseClick(slot, ((ISlot) slot).mouseWheelie_getIdInContainer(), data, slotActionType);
-							return InteractionManager.TICK_WAITER;
-						}, true)
+							return InteractionManager.CLICK_WAITER;
+						})
 				).scroll(hoverSlot, scrollAmount < 0);
 				return ScrollAction.SUCCESS;
 			}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package de.siphalor.mousewheelie.client.network;
+
+import de.siphalor.mousewheelie.MWConfig;
+import de.siphalor.mousewheelie.common.network.ClickProgramPayload;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.screen.slot.SlotActionType;
+
+/**
+ * A batch of clicks that the server executes in one go.
+ * <p>
+ * The batch is sent as a single packet to servers that have this mod installed, including the integrated server.
+ * Instead of pacing clicks, the whole batch is run at once and the client gets resynchronized once afterwards.
+ * Going through the network keeps the batch in order with the vanilla packets sent before and after it.
+ */
+@Environment(EnvType.CLIENT)
+public class ClickProgram extends InteractionManager.PayloadEvent {
+	private final int size;
+
+	/**
+	 * Creates a new program. All arrays must have the same length.
+	 *
+	 * @param syncId      the sync id of the container to click in
+	 * @param slotIds     the ids of the clicked slots
+	 * @param buttons     the buttons of the clicks
+	 * @param actionTypes the kinds of the clicks
+	 */
+	public ClickProgram(int syncId, int[] slotIds, int[] buttons, SlotActionType[] actionTypes) {
+		super(syncId, new ClickProgramPayload(syncId, slotIds, buttons, actionTypes));
+		this.size = slotIds.length;
+	}
+
+	/**
+	 * Checks whether click programs of the given size can be executed by the server.
+	 *
+	 * @param size the amount of clicks
+	 * @return whether the server supports click programs of that size
+	 */
+	public static boolean isAvailable(int size) {
+		MinecraftClient client = MinecraftClient.getInstance();
+		if (client.player == null) {
+			return false;
+		}
+		if (client.isIntegratedServerRunning() && !MWConfig.integratedServerExecution) {
+			return false;
+		}
+		return MWClientNetworking.canSendClickProgram(size);
+	}
+
+	public int size() {
+		return size;
+	}
+}
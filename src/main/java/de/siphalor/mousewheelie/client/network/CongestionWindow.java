@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.network;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Paces clicks similar to a TCP congestion window.
+ * Multiple clicks may be in flight at once, the window grows as long as they are confirmed in time
+ * and shrinks when the server has to correct the client's state.
+ * <p>
+ * Every click is tagged with the screen handler revision its client-side prediction was based on.
+ * Clicks are only pipelined while that revision is stable,
+ * as the server answers every click with an outdated revision by resending the whole inventory.
+ * <p>
+ * The window never grows beyond the amount of clicks that fit into one round trip at the configured interaction rate,
+ * so the average click rate stays within what the user allowed, even on servers that don't know about pipelining.
+ */
+@Environment(EnvType.CLIENT)
+public class CongestionWindow {
+	private static final double INITIAL_WINDOW = 2;
+	private static final double MIN_WINDOW = 1;
+	private static final double MAX_WINDOW = 64;
+	private static final long DEFAULT_RTT_MILLIS = 100;
+	private static final long MIN_TIMEOUT_MILLIS = 20;
+	private static final long MAX_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * All clicks that are currently in flight, oldest first.
+	 */
+	private final ArrayDeque<InFlightClick> inFlight = new ArrayDeque<>();
+	/**
+	 * The last revision the server reported for the container of the clicks in flight.
+	 */
+	private int serverRevision;
+	private double window = INITIAL_WINDOW;
+	private double slowStartThreshold = MAX_WINDOW;
+	private double smoothedRtt = -1;
+	private double rttVariance;
+	private long minIntervalMillis;
+
+	public boolean hasCapacity() {
+		if (inFlight.isEmpty()) {
+			return true;
+		}
+		// The server changed the revision, so all clicks in flight are based on an outdated state.
+		// Wait for them to be resolved, before piling more outdated clicks on top.
+		if (inFlight.peekLast().revision() != serverRevision) {
+			return false;
+		}
+		return inFlight.size() < getWindow();
+	}
+
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	public int getWindow() {
+		return (int) Math.min(window, getRateLimit());
+	}
+
+	/**
+	 * Sets the minimum average interval between two clicks.
+	 *
+	 * @param minIntervalMillis the interval in milliseconds, <code>0</code> for no limit
+	 */
+	public void setMinInterval(long minIntervalMillis) {
+		this.minIntervalMillis = minIntervalMillis;
+	}
+
+	public boolean hasRttSample() {
+		return smoothedRtt >= 0;
+	}
+
+	/**
+	 * Seeds the round trip time estimation, e.g. with the latency reported in the player list.
+	 * Has no effect once a real sample has been taken.
+	 *
+	 * @param rttMillis the estimated round trip time
+	 */
+	public void seedRtt(long rttMillis) {
+		if (!hasRttSample() && rttMillis > 0) {
+			smoothedRtt = rttMillis;
+			rttVariance = rttMillis / 2D;
+		}
+	}
+
+	/**
+	 * Gets the time after which a click without any response is considered to be confirmed.
+	 * The vanilla server stays silent when the client predicted a click correctly.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public long getTimeout() {
+		double rtt = hasRttSample() ? smoothedRtt : DEFAULT_RTT_MILLIS;
+		long timeout = (long) (rtt + 4 * rttVariance);
+		return Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, timeout));
+	}
+
+	/**
+	 * Registers a click that has just been sent.
+	 *
+	 * @param now      the current time in milliseconds
+	 * @param syncId   the sync id of the container that was clicked in
+	 * @param revision the revision of the screen handler at the time of clicking
+	 */
+	public void onSent(long now, int syncId, int revision) {
+		if (inFlight.isEmpty() || inFlight.peekLast().syncId() != syncId) {
+			// Clicks in different containers are unrelated, so start anew
+			inFlight.clear();
+			serverRevision = revision;
+		}
+		inFlight.add(new InFlightClick(now, syncId, revision));
+	}
+
+	/**
+	 * Called when the server sends a slot update or the whole inventory.
+	 *
+	 * @param now      the current time in milliseconds
+	 * @param syncId   the sync id of the updated container
+	 * @param revision the revision of the update
+	 * @param resync   whether the whole inventory has been resent
+	 */
+	public void onUpdate(long now, int syncId, int revision, boolean resync) {
+		if (inFlight.isEmpty() || inFlight.peekFirst().syncId() != syncId) {
+			return;
+		}
+		serverRevision = revision;
+
+		if (resync) {
+			// The server rolled back the client's predictions.
+			// Every click in flight has been resolved by this.
+			inFlight.clear();
+			shrink();
+			return;
+		}
+
+		InFlightClick click = inFlight.peekFirst();
+		if (revision - click.revision() <= 0) {
+			// The update was produced before the server processed any of the clicks in flight
+			return;
+		}
+		inFlight.pollFirst();
+		long sample = now - click.sentAt();
+		boolean late = sample > getTimeout();
+		sampleRtt(sample);
+		if (late) {
+			shrink();
+		} else {
+			grow();
+		}
+	}
+
+	/**
+	 * Confirms all clicks that went unanswered for longer than the timeout.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	public void tick(long now) {
+		long timeout = getTimeout();
+		Iterator<InFlightClick> iterator = inFlight.iterator();
+		while (iterator.hasNext()) {
+			InFlightClick click = iterator.next();
+			if (now - click.sentAt() <= timeout) {
+				break;
+			}
+			iterator.remove();
+			// Outdated clicks always provoke a response, so no answer only means success for up-to-date clicks
+			if (click.revision() == serverRevision) {
+				grow();
+			}
+		}
+	}
+
+	/**
+	 * Forgets about all clicks in flight after the interactions stalled, as their outcome is unknown.
+	 */
+	public void onStall() {
+		inFlight.clear();
+		shrink();
+	}
+
+	public void reset() {
+		inFlight.clear();
+		window = INITIAL_WINDOW;
+		slowStartThreshold = MAX_WINDOW;
+		smoothedRtt = -1;
+		rttVariance = 0;
+	}
+
+	private record InFlightClick(long sentAt, int syncId, int revision) {}
+
+	private void sampleRtt(long sample) {
+		if (!hasRttSample()) {
+			smoothedRtt = sample;
+			rttVariance = sample / 2D;
+			return;
+		}
+		rttVariance = 0.75 * rttVariance + 0.25 * Math.abs(smoothedRtt - sample);
+		smoothedRtt = 0.875 * smoothedRtt + 0.125 * sample;
+	}
+
+	private void grow() {
+		if (window < slowStartThreshold) {
+			window += 1;
+		} else {
+			window += 1 / window;
+		}
+		window = Math.min(window, getRateLimit());
+	}
+
+	/**
+	 * Gets the largest window at which clicks are on average not sent faster than the minimum interval allows.
+	 */
+	private double getRateLimit() {
+		if (minIntervalMillis <= 0) {
+			return MAX_WINDOW;
+		}
+		double rtt = hasRttSample() ? smoothedRtt : DEFAULT_RTT_MILLIS;
+		return Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, rtt / minIntervalMillis));
+	}
+
+	private void shrink() {
+		slowStartThreshold = Math.max(MIN_WINDOW, window / 2);
+		window = slowStartThreshold;
+	}
+}
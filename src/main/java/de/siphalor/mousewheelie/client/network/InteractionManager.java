@@ -17,146 +17,617 @@
 
 package de.siphalor.mousewheelie.client.network;
 
+import de.siphalor.mousewheelie.MWConfig;
 import de.siphalor.mousewheelie.client.MWClient;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import lombok.CustomLog;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
 import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientPlayerEntity;
+import net.minecraft.client.network.PlayerListEntry;
+import net.minecraft.network.packet.CustomPayload;
 import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.c2s.play.ClickSlotC2SPacket;
 import net.minecraft.network.packet.c2s.play.PlayerActionC2SPacket;
+import net.minecraft.screen.ScreenHandler;
 import net.minecraft.screen.slot.SlotActionType;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Direction;
 
 import java.time.Duration;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 
 @Environment(EnvType.CLIENT)
 @CustomLog
 public class InteractionManager {
-	private static final Queue<InteractionEvent> interactionEventQueue = new ArrayDeque<>();
-	private static final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1);
-	private static ScheduledFuture<?> tickFuture;;
+	/**
+	 * Queues of pending events for each {@link Priority}. Any thread may push to them, but only the client thread polls from them.
+	 */
+	private static final Map<Priority, Queue<QueuedEvent>> lanes = new EnumMap<>(Priority.class);
+	/**
+	 * Triggers that have been published from other threads or during dispatching, as a bit mask of {@link TriggerType} ordinals.
+	 */
+	private static final AtomicInteger pendingTriggers = new AtomicInteger();
+	/**
+	 * Whether a task to drain the pending triggers has already been submitted to the client thread.
+	 * All triggers that are published until it runs share this single task.
+	 */
+	private static final AtomicBoolean drainScheduled = new AtomicBoolean();
+	private static final Queue<DelayedAction> delayedActions = new ConcurrentLinkedQueue<>();
+	private static final CongestionWindow congestionWindow = new CongestionWindow();
+	private static volatile long tickRate = 50;
+	private static long lastTickTime;
+	private static boolean dispatching;
+	private static final long MIN_STALL_TIMEOUT_MILLIS = 250;
+	private static final long MAX_STALL_TIMEOUT_MILLIS = 5000;
+	private static final int MAX_CONSECUTIVE_STALLS = 3;
+	/**
+	 * The time at which the current waiter is considered to be stalled.
+	 */
+	private static long waiterDeadline;
+	private static int consecutiveStalls;
+	/**
+	 * Re-planning actions of operations that have been aborted by a stall, run once the resync arrived.
+	 */
+	private static final Set<Runnable> pendingReplans = new LinkedHashSet<>();
 
 
 	public static final Waiter DUMMY_WAITER = (TriggerType triggerType) -> true;
 	public static final Waiter TICK_WAITER = (TriggerType triggerType) -> triggerType == TriggerType.TICK;
+	/**
+	 * Waiter for clicks that may be pipelined.
+	 * The next event is released as soon as the congestion window has room for it.
+	 */
+	public static final Waiter CLICK_WAITER = new ClickWaiter();
+	private static final Waiter RESYNC_WAITER = (TriggerType triggerType) -> triggerType == TriggerType.CONTAINER_RESYNC;
 
 	public static final PacketEvent SWAP_WITH_OFFHAND_EVENT = new PacketEvent(
 			new PlayerActionC2SPacket(PlayerActionC2SPacket.Action.SWAP_ITEM_WITH_OFFHAND, BlockPos.ORIGIN, Direction.DOWN),
 			triggerType -> triggerType == InteractionManager.TriggerType.CONTAINER_SLOT_UPDATE && MWClient.lastUpdatedSlot == 45
 	);
 
-	private static Waiter waiter = null;
+	static {
+		for (Priority priority : Priority.values()) {
+			lanes.put(priority, new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	private static volatile Waiter waiter = null;
+	/**
+	 * The operation of the last sent event, completed as soon as its waiter releases the queue.
+	 */
+	private static InteractionOperation currentOperation;
 
 	public static void delay(Runnable action, Duration duration) {
-		scheduledExecutor.schedule(action, duration.toMillis(), TimeUnit.MILLISECONDS);
+		delayedActions.add(new DelayedAction(System.currentTimeMillis() + duration.toMillis(), action));
+	}
+
+
+	/**
+	 * Queues a single event as its own {@link Priority#INTERACTIVE} operation.
+	 *
+	 * @param interactionEvent the event, <code>null</code> is ignored
+	 * @return a handle to the operation
+	 */
+	public static InteractionOperation push(InteractionEvent interactionEvent) {
+		return push(interactionEvent, Priority.INTERACTIVE);
+	}
+
+	public static InteractionOperation push(InteractionEvent interactionEvent, Priority priority) {
+		return pushAll(Collections.singletonList(interactionEvent), priority);
+	}
+
+	/**
+	 * Queues a batch of events as one {@link Priority#INTERACTIVE} operation.
+	 *
+	 * @param interactionEvents the events, <code>null</code> elements are ignored
+	 * @return a handle to the operation
+	 */
+	public static InteractionOperation pushAll(Collection<InteractionEvent> interactionEvents) {
+		return pushAll(interactionEvents, Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Queues a batch of events as one operation.
+	 * If the events click in a container, the operation is bound to it and dropped once the container is closed.
+	 *
+	 * @param interactionEvents the events, <code>null</code> elements are ignored
+	 * @param priority          the lane to queue the events in
+	 * @return a handle to the operation
+	 */
+	public static InteractionOperation pushAll(Collection<InteractionEvent> interactionEvents, Priority priority) {
+		if (interactionEvents == null) {
+			interactionEvents = Collections.emptyList();
+		}
+		int syncId = InteractionOperation.ANY_CONTAINER;
+		int count = 0;
+		for (InteractionEvent event : interactionEvents) {
+			if (event == null) {
+				continue;
+			}
+			count++;
+			if (syncId == InteractionOperation.ANY_CONTAINER && event instanceof ContainerEvent containerEvent) {
+				syncId = containerEvent.getContainerSyncId();
+			}
+		}
+
+		InteractionOperation operation = new InteractionOperation(syncId, priority);
+		if (count == 0) {
+			operation.complete();
+			return operation;
+		}
+		// Register all events before queueing, so the operation can't complete in between
+		operation.onQueued(count);
+		Queue<QueuedEvent> lane = lanes.get(priority);
+		for (InteractionEvent event : interactionEvents) {
+			if (event != null) {
+				lane.add(new QueuedEvent(event, operation));
+			}
+		}
+		triggerSend(TriggerType.INITIAL);
+		return operation;
 	}
 
+	public static InteractionOperation pushClickEvent(int containerSyncId, int slotId, int buttonId, SlotActionType slotAction) {
+		return push(new ClickEvent(containerSyncId, slotId, buttonId, slotAction));
+	}
 
-	public static void push(InteractionEvent interactionEvent) {
-		if (interactionEvent == null) {
+	/**
+	 * Notifies the waiting event about the given trigger.
+	 * On the client thread the trigger is processed immediately.
+	 * Other threads publish it and let the client thread process all published triggers in one batch.
+	 *
+	 * @param triggerType the trigger
+	 */
+	public static void triggerSend(TriggerType triggerType) {
+		MinecraftClient client = MinecraftClient.getInstance();
+		if (!client.isOnThread()) {
+			pendingTriggers.getAndUpdate(triggers -> triggers | 1 << triggerType.ordinal());
+			if (drainScheduled.compareAndSet(false, true)) {
+				client.execute(InteractionManager::drainPendingTriggers);
+			}
 			return;
 		}
-		synchronized (interactionEventQueue) {
-			interactionEventQueue.add(interactionEvent);
-			if (waiter == null)
-				triggerSend(TriggerType.INITIAL);
+		if (dispatching) {
+			pendingTriggers.getAndUpdate(triggers -> triggers | 1 << triggerType.ordinal());
+			return;
+		}
+		dispatching = true;
+		try {
+			dispatch(triggerType);
+			// Process everything that came up while dispatching right away, instead of waiting for the next tick
+			int triggers;
+			while ((triggers = pendingTriggers.getAndSet(0)) != 0) {
+				dispatchAll(triggers);
+			}
+		} finally {
+			dispatching = false;
 		}
 	}
 
-	public static void pushAll(Collection<InteractionEvent> interactionEvents) {
-		if (interactionEvents == null) {
+	private static void drainPendingTriggers() {
+		drainScheduled.set(false);
+		int triggers = pendingTriggers.getAndSet(0);
+		if (triggers == 0) {
 			return;
 		}
-		synchronized (interactionEventQueue) {
-			interactionEventQueue.addAll(interactionEvents);
-			if (waiter == null)
-				triggerSend(TriggerType.INITIAL);
+		try {
+			for (TriggerType triggerType : TriggerType.values()) {
+				if ((triggers & 1 << triggerType.ordinal()) != 0) {
+					triggerSend(triggerType);
+				}
+			}
+		} catch (Exception e) {
+			log.error("Error while dispatching interactions ", e);
 		}
 	}
 
-	public static void pushClickEvent(int containerSyncId, int slotId, int buttonId, SlotActionType slotAction) {
-		push(new ClickEvent(containerSyncId, slotId, buttonId, slotAction));
+	private static void dispatchAll(int triggers) {
+		for (TriggerType triggerType : TriggerType.values()) {
+			if ((triggers & 1 << triggerType.ordinal()) != 0) {
+				dispatch(triggerType);
+			}
+		}
 	}
 
-	public static void triggerSend(TriggerType triggerType) {
-		synchronized (interactionEventQueue) {
-			if (waiter == null || waiter.trigger(triggerType)) {
-				do {
-					InteractionEvent event = interactionEventQueue.poll();
-					if (event == null) {
-						waiter = null;
-						break;
-					}
-
-					doSendEvent(event);
-				} while (waiter.trigger(TriggerType.INITIAL));
+	private static void dispatch(TriggerType triggerType) {
+		if (triggerType == TriggerType.TICK) {
+			congestionWindow.tick(System.currentTimeMillis());
+		}
+		if (waiter == null) {
+			sendQueued();
+		} else if (triggerType == TriggerType.INITIAL) {
+			// New events only skip the line for pipelined clicks, other waiters expect a real trigger
+			if (waiter instanceof ClickWaiter && (waiter.trigger(triggerType) || canPreempt())) {
+				sendQueued();
+			}
+		} else if (waiter.trigger(triggerType)) {
+			if (waiter == RESYNC_WAITER) {
+				runReplans();
 			}
+			sendQueued();
 		}
 	}
 
-	private static void doSendEvent(InteractionEvent event) {
-		if (event.shouldRunOnMainThread()) {
-			runOnMainThread(event);
-		} else {
-			waiter = event.send();
+	private static void sendQueued() {
+		do {
+			completeCurrentOperation();
+			QueuedEvent queuedEvent = pollEvent();
+			if (queuedEvent == null) {
+				waiter = null;
+				break;
+			}
+
+			currentOperation = queuedEvent.operation();
+			waiter = queuedEvent.event().send();
+			currentOperation.onSent();
+			if (queuedEvent.event().isExecutedByServer()) {
+				currentOperation.onHandedToServer();
+			}
+			onEventSent(waiter);
+			waiterDeadline = System.currentTimeMillis() + getStallTimeout();
+		} while (waiter.trigger(TriggerType.INITIAL));
+	}
+
+	/**
+	 * Gets the time after which a waiter that didn't release the queue is considered to be stalled.
+	 * This is derived from the measured round trip time.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public static long getStallTimeout() {
+		long timeout = 4 * congestionWindow.getTimeout() + tickRate;
+		return Math.max(MIN_STALL_TIMEOUT_MILLIS, Math.min(MAX_STALL_TIMEOUT_MILLIS, timeout));
+	}
+
+	private static void checkStall(long now) {
+		Waiter currentWaiter = waiter;
+		// Pipelined clicks are confirmed by the congestion window's own timeout, so they can't stall
+		if (currentWaiter == null || currentWaiter instanceof ClickWaiter || now < waiterDeadline) {
+			return;
+		}
+		dispatching = true;
+		try {
+			if (currentWaiter == RESYNC_WAITER) {
+				log.warn("Didn't receive an inventory resync, continuing anyway");
+				runReplans();
+				sendQueued();
+			} else {
+				recoverFromStall(now);
+			}
+		} finally {
+			dispatching = false;
 		}
 	}
 
-	private static void runOnMainThread(InteractionEvent event) {
-		Waiter blockingWaiter = tt -> false;
-		waiter = blockingWaiter;
-		MinecraftClient.getInstance().execute(() -> {
-			synchronized (interactionEventQueue) {
-				if (waiter == blockingWaiter) {
-					waiter = event.send();
+	/**
+	 * Aborts the stalled operation and all operations that can be re-planned,
+	 * as they're based on a predicted state that is most likely wrong by now.
+	 * Then requests a full resync of the inventory and re-plans the aborted operations once it arrived.
+	 */
+	private static void recoverFromStall(long now) {
+		consecutiveStalls++;
+		log.warn("Interaction queue stalled, requesting an inventory resync ({} in a row)", consecutiveStalls);
+
+		abortForReplan(currentOperation);
+		currentOperation = null;
+		for (Queue<QueuedEvent> lane : lanes.values()) {
+			for (QueuedEvent queuedEvent : lane) {
+				if (queuedEvent.operation().getReplanner() != null) {
+					abortForReplan(queuedEvent.operation());
 				}
 			}
-		});
+			lane.removeIf(queuedEvent -> queuedEvent.operation().isDone());
+		}
+		if (consecutiveStalls > MAX_CONSECUTIVE_STALLS) {
+			// Re-planning doesn't seem to help, so give up on it
+			pendingReplans.clear();
+		}
+		congestionWindow.onStall();
+
+		if (requestResync()) {
+			waiter = RESYNC_WAITER;
+			waiterDeadline = now + getStallTimeout();
+		} else {
+			runReplans();
+			sendQueued();
+		}
 	}
 
-	public static void setTickRate(long milliSeconds) {
-		if (tickFuture != null) {
-			tickFuture.cancel(false);
+	private static void abortForReplan(InteractionOperation operation) {
+		if (operation == null || operation.isDone()) {
+			return;
+		}
+		operation.cancel();
+		// The server might still execute what it already received, so planning it again could apply it twice
+		if (operation.getReplanner() != null && !operation.isHandedToServer()) {
+			pendingReplans.add(operation.getReplanner());
+		}
+	}
+
+	private static void runReplans() {
+		List<Runnable> replans = new ArrayList<>(pendingReplans);
+		pendingReplans.clear();
+		for (Runnable replan : replans) {
+			try {
+				replan.run();
+			} catch (Exception e) {
+				log.error("Failed to re-plan interaction operation", e);
+			}
+		}
+	}
+
+	/**
+	 * Makes the server resend the whole inventory, by sending a click that doesn't do anything with an outdated revision.
+	 *
+	 * @return whether the request has been sent
+	 */
+	private static boolean requestResync() {
+		MinecraftClient client = MinecraftClient.getInstance();
+		if (client.player == null || client.getNetworkHandler() == null) {
+			return false;
+		}
+		ScreenHandler screenHandler = client.player.currentScreenHandler;
+		client.getNetworkHandler().sendPacket(new ClickSlotC2SPacket(
+				screenHandler.syncId, screenHandler.getRevision() - 1, -1, 0, SlotActionType.PICKUP,
+				screenHandler.getCursorStack().copy(), new Int2ObjectOpenHashMap<>()
+		));
+		return true;
+	}
+
+	/**
+	 * Polls the next event, skipping events of cancelled operations and of containers that are no longer open.
+	 * Higher lanes take precedence, unless the current operation is still holding items on the cursor.
+	 */
+	private static QueuedEvent pollEvent() {
+		while (true) {
+			Queue<QueuedEvent> lane = selectLane();
+			if (lane == null) {
+				return null;
+			}
+			QueuedEvent queuedEvent = lane.poll();
+			if (queuedEvent == null) {
+				continue;
+			}
+			InteractionOperation operation = queuedEvent.operation();
+			if (operation.getSyncId() != InteractionOperation.ANY_CONTAINER && operation.getSyncId() != getCurrentSyncId()) {
+				operation.cancel();
+			}
+			if (!operation.isDone()) {
+				return queuedEvent;
+			}
+		}
+	}
+
+	private static Queue<QueuedEvent> selectLane() {
+		InteractionOperation operation = currentOperation;
+		if (operation != null && !operation.isDone() && !isCursorEmpty()) {
+			// Switching lanes now would let other events operate on the stack in the cursor
+			Queue<QueuedEvent> lane = lanes.get(operation.getPriority());
+			if (!lane.isEmpty()) {
+				return lane;
+			}
+		}
+		for (Priority priority : Priority.values()) {
+			Queue<QueuedEvent> lane = lanes.get(priority);
+			if (!lane.isEmpty()) {
+				return lane;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether a more important event is waiting, that may be sent in between the pipelined clicks of the current operation.
+	 */
+	private static boolean canPreempt() {
+		InteractionOperation operation = currentOperation;
+		if (operation == null || !isCursorEmpty()) {
+			return false;
+		}
+		for (Priority priority : Priority.values()) {
+			if (priority.compareTo(operation.getPriority()) >= 0) {
+				return false;
+			}
+			if (!lanes.get(priority).isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isCursorEmpty() {
+		ClientPlayerEntity player = MinecraftClient.getInstance().player;
+		return player == null || player.currentScreenHandler.getCursorStack().isEmpty();
+	}
+
+	private static void completeCurrentOperation() {
+		if (currentOperation != null && currentOperation.isFullySent()) {
+			currentOperation.complete();
+			currentOperation = null;
+			consecutiveStalls = 0;
+		}
+	}
+
+	private static int getCurrentSyncId() {
+		ClientPlayerEntity player = MinecraftClient.getInstance().player;
+		if (player == null) {
+			return InteractionOperation.ANY_CONTAINER;
 		}
-		tickFuture = scheduledExecutor.scheduleAtFixedRate(InteractionManager::tick, milliSeconds, milliSeconds, TimeUnit.MILLISECONDS);
+		return player.currentScreenHandler.syncId;
 	}
 
+	/**
+	 * Called when the server updates the contents of a container.
+	 * Must be called on the client thread.
+	 *
+	 * @param syncId   the sync id of the container
+	 * @param revision the revision the server sent along with the update
+	 * @param resync   whether the whole inventory has been resent
+	 */
+	public static void onContainerUpdate(int syncId, int revision, boolean resync) {
+		congestionWindow.onUpdate(System.currentTimeMillis(), syncId, revision, resync);
+		triggerSend(resync ? TriggerType.CONTAINER_RESYNC : TriggerType.CONTAINER_SLOT_UPDATE);
+	}
+
+	private static void onEventSent(Waiter waiter) {
+		if (waiter instanceof ClickWaiter) {
+			ClientPlayerEntity player = MinecraftClient.getInstance().player;
+			if (player == null) {
+				return;
+			}
+			if (!congestionWindow.hasRttSample()) {
+				congestionWindow.seedRtt(getServerLatency());
+			}
+			ScreenHandler screenHandler = player.currentScreenHandler;
+			congestionWindow.onSent(System.currentTimeMillis(), screenHandler.syncId, screenHandler.getRevision());
+		}
+	}
+
+	private static long getServerLatency() {
+		MinecraftClient client = MinecraftClient.getInstance();
+		if (client.player == null || client.getNetworkHandler() == null) {
+			return -1;
+		}
+		PlayerListEntry entry = client.getNetworkHandler().getPlayerListEntry(client.player.getUuid());
+		return entry == null ? -1 : entry.getLatency();
+	}
+
+	/**
+	 * Applies the configured interaction rate, depending on whether the client is connected to a local server.
+	 */
+	public static void applyConfiguredTickRate() {
+		setTickRate(MWClient.isOnLocalServer() ? MWConfig.integratedInteractionRate : MWConfig.interactionRate);
+	}
+
+	/**
+	 * Sets the minimum interval between two {@link TriggerType#TICK} triggers.
+	 * As these are only fired from the client tick, intervals below one game tick have no further effect.
+	 *
+	 * @param milliSeconds the interval in milliseconds
+	 */
+	public static void setTickRate(long milliSeconds) {
+		congestionWindow.setMinInterval(milliSeconds);
+		tickRate = milliSeconds;
+	}
+
+	/**
+	 * Drains all published triggers and due actions. Called at the end of every client tick.
+	 */
 	public static void tick() {
 		try {
-			triggerSend(TriggerType.TICK);
+			long now = System.currentTimeMillis();
+			runDelayedActions(now);
+			checkStall(now);
+
+			drainPendingTriggers();
+			if (now - lastTickTime >= tickRate) {
+				lastTickTime = now;
+				triggerSend(TriggerType.TICK);
+			}
 		} catch (Exception e) {
 			log.error("Error while ticking InteractionManager ", e);
 		}
 	}
 
+	private static void runDelayedActions(long now) {
+		Iterator<DelayedAction> iterator = delayedActions.iterator();
+		while (iterator.hasNext()) {
+			DelayedAction delayedAction = iterator.next();
+			if (delayedAction.time() <= now) {
+				iterator.remove();
+				delayedAction.action().run();
+			}
+		}
+	}
+
 	public static void setWaiter(Waiter waiter) {
-		synchronized (interactionEventQueue) {
-			InteractionManager.waiter = waiter;
+		InteractionManager.waiter = waiter;
+		waiterDeadline = System.currentTimeMillis() + getStallTimeout();
+	}
+
+	/**
+	 * Cancels all operations that work on the given container, e.g. because it is being closed.
+	 * Operations that aren't bound to a container, like refills, are kept.
+	 *
+	 * @param syncId the sync id of the container
+	 */
+	public static void cancelContainer(int syncId) {
+		for (Queue<QueuedEvent> lane : lanes.values()) {
+			for (QueuedEvent queuedEvent : lane) {
+				if (queuedEvent.operation().getSyncId() == syncId) {
+					queuedEvent.operation().cancel();
+				}
+			}
+			lane.removeIf(queuedEvent -> queuedEvent.operation().isCancelled());
+		}
+		InteractionOperation operation = currentOperation;
+		if (operation != null && operation.getSyncId() == syncId) {
+			operation.cancel();
+			// The response the waiter expects might never arrive
+			waiter = null;
+			currentOperation = null;
 		}
 	}
 
+	/**
+	 * Cancels all operations.
+	 */
 	public static void clear() {
-		synchronized (interactionEventQueue) {
-			interactionEventQueue.clear();
-			waiter = null;
+		for (Queue<QueuedEvent> lane : lanes.values()) {
+			QueuedEvent queuedEvent;
+			while ((queuedEvent = lane.poll()) != null) {
+				queuedEvent.operation().cancel();
+			}
+		}
+		if (currentOperation != null) {
+			currentOperation.cancel();
+			currentOperation = null;
 		}
+		waiter = null;
+		pendingReplans.clear();
+	}
+
+	/**
+	 * Clears all events and forgets about the current connection's round trip times.
+	 */
+	public static void reset() {
+		clear();
+		congestionWindow.reset();
 	}
 
 	public static boolean isReady() {
-		synchronized (interactionEventQueue) {
-			return waiter == null && interactionEventQueue.isEmpty();
+		if (waiter != null) {
+			return false;
+		}
+		for (Queue<QueuedEvent> lane : lanes.values()) {
+			if (!lane.isEmpty()) {
+				return false;
+			}
 		}
+		return true;
 	}
 
+	private record DelayedAction(long time, Runnable action) {}
+
+	private record QueuedEvent(InteractionEvent event, InteractionOperation operation) {}
+
 	@FunctionalInterface
 	public interface Waiter {
 		boolean trigger(TriggerType triggerType);
@@ -180,6 +651,13 @@ public class InteractionManager {
 		}
 	}
 
+	private static class ClickWaiter implements Waiter {
+		@Override
+		public boolean trigger(TriggerType triggerType) {
+			return congestionWindow.hasCapacity();
+		}
+	}
+
 	public static class SlotUpdateWaiter implements Waiter {
 		int triggers;
 
@@ -193,8 +671,27 @@ public class InteractionManager {
 		}
 	}
 
+	/**
+	 * The lanes events are queued in, most important first.
+	 * Events of a more important lane are sent first and may even be sent in between the clicks of a less important operation.
+	 */
+	public enum Priority {
+		/**
+		 * Gameplay-critical interactions, like refilling the hand or picking tools.
+		 */
+		CRITICAL,
+		/**
+		 * Direct reactions to user input in screens, like scrolling.
+		 */
+		INTERACTIVE,
+		/**
+		 * Long-running batches, like sorting or restocking.
+		 */
+		BULK
+	}
+
 	public enum TriggerType {
-		INITIAL, CONTAINER_SLOT_UPDATE, GUI_CONFIRM, HELD_ITEM_CHANGE, TICK
+		INITIAL, CONTAINER_SLOT_UPDATE, CONTAINER_RESYNC, GUI_CONFIRM, HELD_ITEM_CHANGE, TICK
 	}
 
 	@FunctionalInterface
@@ -205,12 +702,26 @@ public class InteractionManager {
 		 * @return the number of inventory packets to wait for
 		 */
 		Waiter send();
-		default boolean shouldRunOnMainThread() {
+
+		/**
+		 * Whether the server executes this event on its own once it has been sent, possibly delayed.
+		 * Operations with such events are not re-planned after they've been sent.
+		 *
+		 * @return whether the server executes the event independently of the following interactions
+		 */
+		default boolean isExecutedByServer() {
 			return false;
 		}
 	}
 
-	public static class ClickEvent implements InteractionEvent {
+	/**
+	 * An event that interacts with a specific container.
+	 */
+	public interface ContainerEvent extends InteractionEvent {
+		int getContainerSyncId();
+	}
+
+	public static class ClickEvent implements ContainerEvent {
 		private final Waiter waiter;
 		private final int containerSyncId;
 		private final int slotId;
@@ -218,7 +729,7 @@ public class InteractionManager {
 		private final SlotActionType slotAction;
 
 		public ClickEvent(int containerSyncId, int slotId, int buttonId, SlotActionType slotAction) {
-			this(containerSyncId, slotId, buttonId, slotAction, TICK_WAITER);
+			this(containerSyncId, slotId, buttonId, slotAction, CLICK_WAITER);
 		}
 
 		public ClickEvent(int containerSyncId, int slotId, int buttonId, SlotActionType slotAction, Waiter waiter) {
@@ -230,38 +741,58 @@ public class InteractionManager {
 		}
 
 		@Override
-		public Waiter send() {
-			MinecraftClient.getInstance().interactionManager.clickSlot(containerSyncId, slotId, buttonId, slotAction, MinecraftClient.getInstance().player);
-			return waiter;
+		public int getContainerSyncId() {
+			return containerSyncId;
 		}
 
 		@Override
-		public boolean shouldRunOnMainThread() {
-			return true;
+		public Waiter send() {
+			MinecraftClient.getInstance().interactionManager.clickSlot(containerSyncId, slotId, buttonId, slotAction, MinecraftClient.getInstance().player);
+			return waiter;
 		}
 	}
 
 	public static class CallbackEvent implements InteractionEvent {
 		private final Supplier<Waiter> callback;
-		private final boolean shouldRunOnMainThread;
 
 		public CallbackEvent(Supplier<Waiter> callback) {
-			this(callback, false);
-		}
-
-		public CallbackEvent(Supplier<Waiter> callback, boolean shouldRunOnMainThread) {
 			this.callback = callback;
-			this.shouldRunOnMainThread = shouldRunOnMainThread;
 		}
 
 		@Override
 		public Waiter send() {
 			return callback.get();
 		}
+	}
+
+	/**
+	 * A {@link CallbackEvent} that interacts with a specific container.
+	 */
+	public static class ContainerCallbackEvent extends CallbackEvent implements ContainerEvent {
+		private final int containerSyncId;
+
+		public ContainerCallbackEvent(int containerSyncId, Supplier<Waiter> callback) {
+			super(callback);
+			this.containerSyncId = containerSyncId;
+		}
+
+		/**
+		 * Wraps the given callback in an event that keeps the container of the given event, if it has one.
+		 *
+		 * @param event    the event whose container to keep
+		 * @param callback the callback to run instead of the event
+		 * @return a new event
+		 */
+		public static CallbackEvent wrap(InteractionEvent event, Supplier<Waiter> callback) {
+			if (event instanceof ContainerEvent containerEvent) {
+				return new ContainerCallbackEvent(containerEvent.getContainerSyncId(), callback);
+			}
+			return new CallbackEvent(callback);
+		}
 
 		@Override
-		public boolean shouldRunOnMainThread() {
-			return shouldRunOnMainThread;
+		public int getContainerSyncId() {
+			return containerSyncId;
 		}
 	}
 
@@ -288,4 +819,34 @@ public class InteractionManager {
 			return waiter;
 		}
 	}
+
+	/**
+	 * Sends a custom payload that the server executes on its own and answers with a resync of the container.
+	 * Waiting for the resync ensures that following clicks are based on the result.
+	 */
+	public static class PayloadEvent implements ContainerEvent {
+		private final int containerSyncId;
+		private final CustomPayload payload;
+
+		public PayloadEvent(int containerSyncId, CustomPayload payload) {
+			this.containerSyncId = containerSyncId;
+			this.payload = payload;
+		}
+
+		@Override
+		public int getContainerSyncId() {
+			return containerSyncId;
+		}
+
+		@Override
+		public Waiter send() {
+			ClientPlayNetworking.send(payload);
+			return Waiter.equal(TriggerType.CONTAINER_RESYNC);
+		}
+
+		@Override
+		public boolean isExecutedByServer() {
+			return true;
+		}
+	}
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.network;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A handle to a batch of events that has been pushed to the {@link InteractionManager}.
+ * <p>
+ * The future completes once the last event has been sent and its waiter has released the queue.
+ * When the operation is cancelled, its remaining events are dropped and the future is cancelled.
+ */
+@Environment(EnvType.CLIENT)
+public class InteractionOperation {
+	/**
+	 * Sync id for operations that are not bound to a specific container.
+	 */
+	public static final int ANY_CONTAINER = -1;
+
+	private final int syncId;
+	private final InteractionManager.Priority priority;
+	private final CompletableFuture<InteractionOperation> future = new CompletableFuture<>();
+	private final AtomicInteger total = new AtomicInteger();
+	private final AtomicInteger sent = new AtomicInteger();
+	private volatile Runnable replanner;
+	private volatile boolean handedToServer;
+
+	InteractionOperation(int syncId, InteractionManager.Priority priority) {
+		this.syncId = syncId;
+		this.priority = priority;
+	}
+
+	/**
+	 * The sync id of the container this operation works on.
+	 *
+	 * @return the sync id or {@link #ANY_CONTAINER}
+	 */
+	public int getSyncId() {
+		return syncId;
+	}
+
+	public InteractionManager.Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Gets the action that plans this operation anew, if it gets aborted because the interactions stalled.
+	 *
+	 * @return the action or <code>null</code>
+	 */
+	public @Nullable Runnable getReplanner() {
+		return replanner;
+	}
+
+	/**
+	 * Sets the action that plans this operation anew, if it gets aborted because the interactions stalled.
+	 * The action runs on the client thread after the inventory has been resynchronized.
+	 *
+	 * @param replanner the action
+	 * @return this operation
+	 */
+	public InteractionOperation setReplanner(@Nullable Runnable replanner) {
+		this.replanner = replanner;
+		return this;
+	}
+
+	public CompletableFuture<InteractionOperation> getFuture() {
+		return future;
+	}
+
+	public int getTotal() {
+		return total.get();
+	}
+
+	public int getSent() {
+		return sent.get();
+	}
+
+	public int getRemaining() {
+		return total.get() - sent.get();
+	}
+
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	public boolean isCancelled() {
+		return future.isCancelled();
+	}
+
+	/**
+	 * Cancels the operation. Events that have already been sent can't be taken back.
+	 *
+	 * @return whether the operation has been cancelled by this call
+	 */
+	public boolean cancel() {
+		return future.cancel(false);
+	}
+
+	void onQueued(int count) {
+		total.addAndGet(count);
+	}
+
+	void onSent() {
+		sent.incrementAndGet();
+	}
+
+	void onHandedToServer() {
+		handedToServer = true;
+	}
+
+	/**
+	 * Whether a part of this operation has been handed to the server for execution, so it can't be re-planned anymore.
+	 *
+	 * @return whether the server received a part of this operation
+	 */
+	public boolean isHandedToServer() {
+		return handedToServer;
+	}
+
+	boolean isFullySent() {
+		return sent.get() >= total.get();
+	}
+
+	void complete() {
+		future.complete(this);
+	}
+}
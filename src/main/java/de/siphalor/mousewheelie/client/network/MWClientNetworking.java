@@ -17,21 +17,70 @@
 
 package de.siphalor.mousewheelie.client.network;
 
+import de.siphalor.mousewheelie.common.network.ClickProgramPayload;
 import de.siphalor.mousewheelie.common.network.ReorderInventoryPayload;
+import de.siphalor.mousewheelie.common.network.ServerCapabilitiesPayload;
+import de.siphalor.mousewheelie.common.network.SortInventoryPayload;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
 
 public class MWClientNetworking {
 
 	private static int blockNextGuiUpdateRefillTriggers;
+	private static volatile @Nullable ServerCapabilitiesPayload serverCapabilities;
+
+	public static void setup() {
+		ClientPlayNetworking.registerGlobalReceiver(ServerCapabilitiesPayload.ID, (payload, context) -> serverCapabilities = payload);
+		ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> serverCapabilities = null);
+	}
+
+	/**
+	 * Gets the capabilities the server advertised on join.
+	 *
+	 * @return the capabilities or <code>null</code> if the server didn't send any or uses a different protocol version
+	 */
+	public static @Nullable ServerCapabilitiesPayload getServerCapabilities() {
+		ServerCapabilitiesPayload capabilities = serverCapabilities;
+		if (capabilities == null || capabilities.protocolVersion() != ServerCapabilitiesPayload.PROTOCOL_VERSION) {
+			return null;
+		}
+		return capabilities;
+	}
 
 	public static boolean canSendReorderPacket() {
-		return ClientPlayNetworking.canSend(ReorderInventoryPayload.ID);
+		ServerCapabilitiesPayload capabilities = getServerCapabilities();
+		return capabilities != null && capabilities.supports(ServerCapabilitiesPayload.FEATURE_REORDER)
+				&& ClientPlayNetworking.canSend(ReorderInventoryPayload.ID);
 	}
 
 	public static void send(ReorderInventoryPayload payload) {
 		ClientPlayNetworking.send(payload);
 	}
 
+	public static boolean canSendSortPacket(Identifier mode) {
+		ServerCapabilitiesPayload capabilities = getServerCapabilities();
+		return capabilities != null && capabilities.supportsSortMode(mode)
+				&& ClientPlayNetworking.canSend(SortInventoryPayload.ID);
+	}
+
+	/**
+	 * Checks whether the server can execute a click program of the given size.
+	 *
+	 * @param size the amount of clicks
+	 * @return whether the program can be sent
+	 */
+	public static boolean canSendClickProgram(int size) {
+		ServerCapabilitiesPayload capabilities = getServerCapabilities();
+		return capabilities != null && capabilities.supports(ServerCapabilitiesPayload.FEATURE_CLICK_PROGRAM)
+				&& size <= capabilities.maxClicks() && ClientPlayNetworking.canSend(ClickProgramPayload.ID);
+	}
+
+	public static void send(SortInventoryPayload payload) {
+		ClientPlayNetworking.send(payload);
+	}
+
 	public static synchronized void blockNextGuiUpdateRefillTriggers(int amount) {
 		blockNextGuiUpdateRefillTriggers += amount;
 	}
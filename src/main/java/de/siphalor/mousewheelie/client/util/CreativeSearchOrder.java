@@ -23,18 +23,19 @@ import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.item.ItemGroups;
 import net.minecraft.item.ItemStack;
-import net.minecraft.registry.Registries;
+import net.minecraft.registry.DynamicRegistryManager;
 import net.minecraft.resource.featuretoggle.FeatureSet;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Objects;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class CreativeSearchOrder {
-	private static FeatureSet lastFeatureSet = null;
+	private static final String BUILDER_THREAD_NAME = "Mouse Wheelie: creative search stack position lookup builder";
+	private static volatile long lastKey;
 	private static final Object2IntMap<StackMatcher> stackToSearchPositionLookup = new Object2IntOpenHashMap<>();
 	static {
 		stackToSearchPositionLookup.defaultReturnValue(Integer.MAX_VALUE);
@@ -61,32 +62,33 @@ public class CreativeSearchOrder {
 				return;
 			}
 			FeatureSet enabledFeatures = client.world.getEnabledFeatures();
+			DynamicRegistryManager registries = client.world.getRegistryManager();
 
-			if (stackToSearchPositionLookup.isEmpty() || !Objects.equals(enabledFeatures, lastFeatureSet)) {
-				ItemGroups.updateDisplayContext(enabledFeatures, true, client.world.getRegistryManager());
-				Collection<ItemStack> displayStacks = new ArrayList<>(ItemGroups.getSearchGroup().getDisplayStacks());
-				new Thread(() -> {
-					Lock lock = stackToSearchPositionLookupLock.writeLock();
-					lock.lock();
-					stackToSearchPositionLookup.clear();
-					if (displayStacks.isEmpty()) {
-						lock.unlock();
-						return;
-					}
+			new Thread(() -> {
+				long key = CreativeSearchOrderCache.computeKey(enabledFeatures, registries);
+				if (key == lastKey && !stackToSearchPositionLookup.isEmpty()) {
+					return;
+				}
+				List<ItemStack> cachedStacks = CreativeSearchOrderCache.load(key, registries);
+				if (cachedStacks != null) {
+					buildLookup(cachedStacks);
+					lastKey = key;
+					return;
+				}
 
-					int i = 0;
-					for (ItemStack stack : displayStacks) {
-						StackMatcher plainMatcher = StackMatcher.ignoreNbt(stack);
-						if (!stack.getComponentChanges().isEmpty() || !stackToSearchPositionLookup.containsKey(plainMatcher)) {
-							stackToSearchPositionLookup.put(plainMatcher, i);
-							i++;
+				// Collecting the display stacks has to happen on the client thread
+				client.execute(() -> {
+					ItemGroups.updateDisplayContext(enabledFeatures, true, registries);
+					List<ItemStack> displayStacks = new ArrayList<>(ItemGroups.getSearchGroup().getDisplayStacks());
+					new Thread(() -> {
+						buildLookup(displayStacks);
+						lastKey = key;
+						if (!displayStacks.isEmpty()) {
+							CreativeSearchOrderCache.save(key, registries, displayStacks);
 						}
-						stackToSearchPositionLookup.put(StackMatcher.of(stack), i);
-						i++;
-					}
-					lock.unlock();
-				}, "Mouse Wheelie: creative search stack position lookup builder").start();
-			}
+					}, BUILDER_THREAD_NAME).start();
+				});
+			}, BUILDER_THREAD_NAME).start();
 
 		} else {
 			Lock lock = stackToSearchPositionLookupLock.writeLock();
@@ -95,4 +97,24 @@ public class CreativeSearchOrder {
 			lock.unlock();
 		}
 	}
+
+	private static void buildLookup(Collection<ItemStack> displayStacks) {
+		Lock lock = stackToSearchPositionLookupLock.writeLock();
+		lock.lock();
+		try {
+			stackToSearchPositionLookup.clear();
+			int i = 0;
+			for (ItemStack stack : displayStacks) {
+				StackMatcher plainMatcher = StackMatcher.ignoreNbt(stack);
+				if (!stack.getComponentChanges().isEmpty() || !stackToSearchPositionLookup.containsKey(plainMatcher)) {
+					stackToSearchPositionLookup.put(plainMatcher, i);
+					i++;
+				}
+				stackToSearchPositionLookup.put(StackMatcher.of(stack), i);
+				i++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.client.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.netty.buffer.Unpooled;
+import lombok.CustomLog;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import net.minecraft.SharedConstants;
+import net.minecraft.item.ItemStack;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.registry.DynamicRegistryManager;
+import net.minecraft.resource.featuretoggle.FeatureFlags;
+import net.minecraft.resource.featuretoggle.FeatureSet;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists the stacks of the creative search tab, so they don't have to be collected from all item groups on every join.
+ * <p>
+ * The cache is keyed by a hash of everything that may influence the search tab:
+ * the game version, the enabled features, the contents of all registries and the installed mods.
+ */
+@Environment(EnvType.CLIENT)
+@CustomLog
+public class CreativeSearchOrderCache {
+	private static final int MAGIC = 0x4D57_4353;
+	private static final int FORMAT_VERSION = 1;
+	private static final Path CACHE_FILE = FabricLoader.getInstance().getGameDir()
+			.resolve(".cache").resolve("mousewheelie").resolve("creative_search_order.bin");
+
+	private CreativeSearchOrderCache() {}
+
+	/**
+	 * Computes the key for the search tab contents in the given environment.
+	 *
+	 * @param features   the enabled features
+	 * @param registries the registries of the current world
+	 * @return the key
+	 */
+	public static long computeKey(FeatureSet features, DynamicRegistryManager registries) {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putString(SharedConstants.getGameVersion().getId(), StandardCharsets.UTF_8);
+		FeatureFlags.FEATURE_MANAGER.toId(features).stream().map(Identifier::toString).sorted()
+				.forEach(id -> hasher.putString(id, StandardCharsets.UTF_8));
+		registries.streamAllRegistries().forEach(entry -> hashRegistry(hasher, entry));
+		FabricLoader.getInstance().getAllMods().stream()
+				.map(ModContainer::getMetadata)
+				.map(metadata -> metadata.getId() + "@" + metadata.getVersion().getFriendlyString())
+				.sorted()
+				.forEach(mod -> hasher.putString(mod, StandardCharsets.UTF_8));
+		return hasher.hash().asLong();
+	}
+
+	private static <T> void hashRegistry(Hasher hasher, DynamicRegistryManager.Entry<T> entry) {
+		hasher.putString(entry.key().getValue().toString(), StandardCharsets.UTF_8);
+		// Iterates in raw id order, which matters for the order of the item groups
+		for (T value : entry.value()) {
+			hasher.putString(String.valueOf(entry.value().getId(value)), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Loads the cached search tab stacks.
+	 *
+	 * @param key        the expected key
+	 * @param registries the registries to decode the stacks with
+	 * @return the stacks in order or <code>null</code> if there's no valid cache for the key
+	 */
+	public static @Nullable List<ItemStack> load(long key, DynamicRegistryManager registries) {
+		if (!Files.isRegularFile(CACHE_FILE)) {
+			return null;
+		}
+		try {
+			// Read into the heap instead of mapping the file, as a mapping would lock the file against replacing it on Windows
+			RegistryByteBuf buf = new RegistryByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(CACHE_FILE)), registries);
+			if (buf.readableBytes() < 16 || buf.readInt() != MAGIC || buf.readInt() != FORMAT_VERSION || buf.readLong() != key) {
+				return null;
+			}
+			int size = buf.readVarInt();
+			if (size < 0 || size > buf.readableBytes()) {
+				return null;
+			}
+			List<ItemStack> stacks = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				stacks.add(ItemStack.PACKET_CODEC.decode(buf));
+			}
+			return stacks;
+		} catch (Exception e) {
+			log.warn("Failed to load the creative search order cache, rebuilding it", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the search tab stacks to the cache.
+	 *
+	 * @param key        the key of the stacks
+	 * @param registries the registries to encode the stacks with
+	 * @param stacks     the stacks in order
+	 */
+	public static void save(long key, DynamicRegistryManager registries, List<ItemStack> stacks) {
+		RegistryByteBuf buf = new RegistryByteBuf(Unpooled.buffer(), registries);
+		try {
+			buf.writeInt(MAGIC);
+			buf.writeInt(FORMAT_VERSION);
+			buf.writeLong(key);
+			buf.writeVarInt(stacks.size());
+			for (ItemStack stack : stacks) {
+				ItemStack.PACKET_CODEC.encode(buf, stack);
+			}
+
+			Files.createDirectories(CACHE_FILE.getParent());
+			Path tempFile = CACHE_FILE.resolveSibling(CACHE_FILE.getFileName() + ".tmp");
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				channel.write(buf.nioBuffer());
+			}
+			Files.move(tempFile, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Failed to save the creative search order cache", e);
+		} finally {
+			buf.release();
+		}
+	}
+}
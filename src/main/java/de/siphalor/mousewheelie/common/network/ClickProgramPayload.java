@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.common.network;
+
+import de.siphalor.mousewheelie.MouseWheelie;
+import lombok.CustomLog;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.screen.slot.SlotActionType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A batch of vanilla slot clicks that the server executes in one go.
+ * The server answers with a single resync of the container instead of individual slot updates.
+ *
+ * @param syncId      the sync id of the container to click in
+ * @param slotIds     the ids of the clicked slots
+ * @param buttons     the buttons of the clicks
+ * @param actionTypes the kinds of the clicks
+ */
+@CustomLog
+public record ClickProgramPayload(int syncId, int[] slotIds, int[] buttons, SlotActionType[] actionTypes) implements CustomPayload {
+
+	public static final PacketCodec<PacketByteBuf, ClickProgramPayload> CODEC =
+			PacketCodec.of(ClickProgramPayload::write, ClickProgramPayload::read);
+	public static final Id<ClickProgramPayload> ID = CustomPayload.id(MouseWheelie.MOD_ID + ":click_program_c2s");
+
+	public static final int MAX_CLICKS = 4096;
+	private static final SlotActionType[] ACTION_TYPES = SlotActionType.values();
+
+	public int size() {
+		return slotIds.length;
+	}
+
+	@Override
+	public Id<? extends CustomPayload> getId() {
+		return ID;
+	}
+
+	public void write(@NotNull PacketByteBuf buf) {
+		buf.writeVarInt(syncId);
+		buf.writeVarInt(slotIds.length);
+		for (int i = 0; i < slotIds.length; i++) {
+			// Same widths as in the vanilla click packet
+			buf.writeShort(slotIds[i]);
+			buf.writeByte(buttons[i]);
+			buf.writeByte(actionTypes[i].ordinal());
+		}
+	}
+
+	public static @Nullable ClickProgramPayload read(PacketByteBuf buf) {
+		int syncId = buf.readVarInt();
+		int size = buf.readVarInt();
+		if (size <= 0 || size > MAX_CLICKS || size * 4L > buf.readableBytes()) {
+			log.warn("Received click program with invalid size {}!", size);
+			return null;
+		}
+
+		int[] slotIds = new int[size];
+		int[] buttons = new int[size];
+		SlotActionType[] actionTypes = new SlotActionType[size];
+		for (int i = 0; i < size; i++) {
+			slotIds[i] = buf.readShort();
+			buttons[i] = buf.readByte();
+			int actionType = buf.readUnsignedByte();
+			if (actionType >= ACTION_TYPES.length) {
+				log.warn("Received click program with invalid action type {}!", actionType);
+				return null;
+			}
+			actionTypes[i] = ACTION_TYPES[actionType];
+		}
+		return new ClickProgramPayload(syncId, slotIds, buttons, actionTypes);
+	}
+}
@@ -17,11 +17,11 @@
 
 package de.siphalor.mousewheelie.common.network;
 
-import de.siphalor.mousewheelie.MouseWheelie;
-import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
+import de.siphalor.mousewheelie.common.sort.ServerSorter;
 import lombok.CustomLog;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.inventory.Inventory;
@@ -30,9 +30,12 @@ import net.minecraft.screen.ScreenHandler;
 import net.minecraft.screen.slot.Slot;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
 
 /**
  * Class that handles functionality on the logical server side.
@@ -40,6 +43,8 @@ import java.util.stream.Collectors;
 @CustomLog
 public class MWLogicalServerNetworking {
 
+	private static final Map<PlayerEntity, ReorderScratch> REORDER_SCRATCHES = new WeakHashMap<>();
+
 	private MWLogicalServerNetworking() {}
 
 	public static void setup() {
@@ -47,6 +52,38 @@ public class MWLogicalServerNetworking {
 		ServerPlayNetworking.registerGlobalReceiver(ReorderInventoryPayload.ID, (payload, context) -> {
 			onReorderInventoryPacket(context.player().getServer(), context.player(), payload);
 		});
+		PayloadTypeRegistry.playC2S().register(SortInventoryPayload.ID, SortInventoryPayload.CODEC);
+		ServerPlayNetworking.registerGlobalReceiver(SortInventoryPayload.ID, (payload, context) -> {
+			onSortInventoryPacket(context.player().getServer(), context.player(), payload);
+		});
+
+		PayloadTypeRegistry.playC2S().register(ClickProgramPayload.ID, ClickProgramPayload.CODEC);
+		ServerPlayNetworking.registerGlobalReceiver(ClickProgramPayload.ID, (payload, context) -> {
+			onClickProgramPacket(context.player().getServer(), context.player(), payload);
+		});
+
+		PayloadTypeRegistry.playS2C().register(ServerCapabilitiesPayload.ID, ServerCapabilitiesPayload.CODEC);
+		ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+			if (ServerPlayNetworking.canSend(handler.player, ServerCapabilitiesPayload.ID)) {
+				sender.sendPacket(ServerCapabilitiesPayload.create());
+			}
+		});
+
+		ServerTickEvents.END_SERVER_TICK.register(server -> PayloadThrottle.tick());
+		ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> server.execute(() -> PayloadThrottle.remove(handler.player)));
+	}
+
+	private static void onSortInventoryPacket(MinecraftServer server, ServerPlayerEntity player, SortInventoryPayload payload) {
+		if (payload == null) {
+			log.warn("Failed to read sort inventory packet from player {}!", player);
+			return;
+		}
+
+		submitAndResync(server, player, payload.syncId(), payload.slots().length, screenHandler -> {
+			if (!ServerSorter.sort(player, screenHandler, payload.slots(), payload.mode())) {
+				log.warn("Sort inventory packet from player {} contains invalid data, ignoring!", player);
+			}
+		});
 	}
 
 	private static void onReorderInventoryPacket(MinecraftServer server, ServerPlayerEntity player, ReorderInventoryPayload payload) {
@@ -55,45 +92,136 @@ public class MWLogicalServerNetworking {
 			return;
 		}
 
-		if (player.currentScreenHandler == null) {
-			log.warn("Player {} tried to reorder inventory without having an open container!", player);
+		submitAndResync(server, player, payload.syncId(), payload.slotMappings().length / 2, screenHandler -> reorder(player, screenHandler, payload.slotMappings()));
+	}
+
+	/**
+	 * Runs work on a screen handler on the server thread as soon as the {@link PayloadThrottle} allows it.
+	 * The container is resent afterwards in any case, even if the work has been dropped or the screen handler is gone,
+	 * as the client waits for the resync before it continues with its next interactions.
+	 */
+	private static void submitAndResync(MinecraftServer server, ServerPlayerEntity player, int syncId, int cost, Consumer<ScreenHandler> work) {
+		server.execute(() -> {
+			boolean accepted = PayloadThrottle.submit(player, cost, () -> {
+				// The request may have been deferred, so the screen handler has to be looked up when it's executed
+				ScreenHandler screenHandler = findScreenHandler(player, syncId);
+				if (screenHandler == null) {
+					log.warn("Player {} sent an inventory request for a container that isn't open anymore!", player);
+					player.currentScreenHandler.updateToClient();
+					return;
+				}
+				screenHandler.disableSyncing();
+				try {
+					work.accept(screenHandler);
+				} finally {
+					screenHandler.enableSyncing();
+				}
+				screenHandler.updateToClient();
+			});
+			if (!accepted) {
+				// Let the client know that nothing happened
+				player.currentScreenHandler.updateToClient();
+			}
+		});
+	}
+
+	private static void onClickProgramPacket(MinecraftServer server, ServerPlayerEntity player, ClickProgramPayload payload) {
+		if (payload == null) {
+			log.warn("Failed to read click program from player {}!", player);
+			return;
+		}
+
+		server.execute(() -> {
+			if (!PayloadThrottle.submit(player, payload.size(), () -> runClickProgram(player, payload))) {
+				// Let the client know that nothing happened
+				player.currentScreenHandler.updateToClient();
+			}
+		});
+	}
+
+	/**
+	 * Executes the clicks of a click program like the vanilla click packet handler would, and resyncs the container once afterwards.
+	 * Must be called on the server thread.
+	 *
+	 * @param player  the clicking player
+	 * @param program the clicks
+	 */
+	private static void runClickProgram(ServerPlayerEntity player, ClickProgramPayload program) {
+		ScreenHandler screenHandler = player.currentScreenHandler;
+		if (screenHandler.syncId != program.syncId() || player.isSpectator() || !screenHandler.canUse(player)) {
+			// Resync anyway, so the client doesn't wait for nothing
+			screenHandler.updateToClient();
 			return;
 		}
+		player.updateLastActionTime();
+		screenHandler.disableSyncing();
+		try {
+			for (int i = 0; i < program.size(); i++) {
+				int slotId = program.slotIds()[i];
+				if (!screenHandler.isValid(slotId)) {
+					continue;
+				}
+				screenHandler.onSlotClick(slotId, program.buttons()[i], program.actionTypes()[i], player);
+			}
+		} finally {
+			screenHandler.enableSyncing();
+		}
+		screenHandler.updateToClient();
+	}
 
-		if (payload.syncId() == player.playerScreenHandler.syncId) {
-			server.execute(() -> reorder(player, player.playerScreenHandler, payload.slotMappings()));
-		} else if (payload.syncId() == player.currentScreenHandler.syncId) {
-			server.execute(() -> reorder(player, player.currentScreenHandler, payload.slotMappings()));
+	private static @Nullable ScreenHandler findScreenHandler(ServerPlayerEntity player, int syncId) {
+		if (syncId == player.playerScreenHandler.syncId) {
+			return player.playerScreenHandler;
+		}
+		if (player.currentScreenHandler != null && syncId == player.currentScreenHandler.syncId) {
+			return player.currentScreenHandler;
 		}
+		return null;
 	}
 
 	private static void reorder(PlayerEntity player, ScreenHandler screenHandler, int[] slotMapping) {
-		if (!checkReorder(player, screenHandler, slotMapping)) {
+		ReorderScratch scratch = REORDER_SCRATCHES.computeIfAbsent(player, p -> new ReorderScratch());
+		if (!checkReorder(player, screenHandler, slotMapping, scratch)) {
 			log.warn("Reorder inventory packet from player {} contains invalid data, ignoring!", player);
 			return;
 		}
 
-		List<ItemStack> stacks = screenHandler.slots.stream().map(Slot::getStack).collect(Collectors.toList());
-
+		int[] destinations = scratch.getDestinations(screenHandler.slots.size());
+		BitSet pending = scratch.origins;
+		pending.clear();
 		for (int i = 0; i < slotMapping.length; i += 2) {
-			int originSlotId = slotMapping[i];
-			int destSlotId = slotMapping[i + 1];
+			if (slotMapping[i] != slotMapping[i + 1]) {
+				destinations[slotMapping[i]] = slotMapping[i + 1];
+				pending.set(slotMapping[i]);
+			}
+		}
 
-			screenHandler.slots.get(destSlotId).setStack(stacks.get(originSlotId));
+		// Follow each permutation cycle and carry the displaced stack along
+		for (int start = pending.nextSetBit(0); start >= 0; start = pending.nextSetBit(start + 1)) {
+			ItemStack carried = screenHandler.slots.get(start).getStack();
+			int current = start;
+			do {
+				pending.clear(current);
+				Slot destination = screenHandler.slots.get(destinations[current]);
+				ItemStack displaced = destination.getStack();
+				destination.setStack(carried);
+				carried = displaced;
+				current = destinations[current];
+			} while (current != start);
 		}
 	}
 
-	private static boolean checkReorder(PlayerEntity player, ScreenHandler screenHandler, int[] slotMappings) {
+	private static boolean checkReorder(PlayerEntity player, ScreenHandler screenHandler, int[] slotMappings, ReorderScratch scratch) {
 		if (slotMappings.length < 4) {
 			log.warn("Reorder inventory packet contains too few slots!");
 			return false;
 		}
 
-		IntSet requestedSlots = new IntAVLTreeSet();
-		Inventory targetInv;
-
-		Slot firstSlot = screenHandler.slots.get(slotMappings[0]);
-		targetInv = firstSlot.inventory;
+		BitSet origins = scratch.origins;
+		BitSet destinations = scratch.destinations;
+		origins.clear();
+		destinations.clear();
+		Inventory targetInv = null;
 
 		for (int i = 0; i < slotMappings.length; i += 2) {
 			int originSlotId = slotMappings[i];
@@ -102,14 +230,21 @@ public class MWLogicalServerNetworking {
 			if (!checkReorderSlot(screenHandler, originSlotId, targetInv)) {
 				return false;
 			}
-			if (!requestedSlots.add(originSlotId)) {
+			targetInv = screenHandler.getSlot(originSlotId).inventory;
+			if (origins.get(originSlotId)) {
 				log.warn("Reorder inventory packet contains duplicate origin slot {}!", originSlotId);
 				return false;
 			}
+			origins.set(originSlotId);
 
 			if (!checkReorderSlot(screenHandler, destSlotId, targetInv)) {
 				return false;
 			}
+			if (destinations.get(destSlotId)) {
+				log.warn("Reorder inventory packet contains duplicate destination slot {}!", destSlotId);
+				return false;
+			}
+			destinations.set(destSlotId);
 
 			if (originSlotId == destSlotId) {
 				continue;
@@ -127,31 +262,41 @@ public class MWLogicalServerNetworking {
 			}
 		}
 
-		for (int i = 1; i < slotMappings.length; i += 2) {
-			int destSlotId = slotMappings[i];
-			if (!requestedSlots.remove(destSlotId)) {
-				log.warn("Reorder inventory packet contains duplicate destination slot or slot without origin: {}!", i);
-				return false;
-			}
-		}
-		if (!requestedSlots.isEmpty()) {
-			log.error("Invalid state during checking reorder packet, please report this to the {} bug tracker. Requested slots: {}", MouseWheelie.MOD_NAME, requestedSlots);
+		if (!origins.equals(destinations)) {
+			log.warn("Reorder inventory packet contains destination slots without origin!");
 			return false;
 		}
 		return true;
 	}
 
-	private static boolean checkReorderSlot(ScreenHandler screenHandler, int slotId, Inventory targetInv) {
-		Slot slot = screenHandler.getSlot(slotId);
-		if (slot == null) {
+	private static boolean checkReorderSlot(ScreenHandler screenHandler, int slotId, @Nullable Inventory targetInv) {
+		if (slotId < 0 || slotId >= screenHandler.slots.size()) {
 			log.warn("Reorder inventory packet contains invalid slot id!");
 			return false;
 		}
+		Slot slot = screenHandler.getSlot(slotId);
 
-		if (targetInv != slot.inventory) {
+		if (targetInv != null && targetInv != slot.inventory) {
 			log.warn("Reorder inventory packet contains slots from different inventories, first: {}, now: {}!", targetInv, slot.inventory);
 			return false;
 		}
 		return true;
 	}
+
+	/**
+	 * Reusable buffers for validating and applying reorders, so that no allocations are necessary per packet.
+	 * Only accessed on the server thread.
+	 */
+	private static class ReorderScratch {
+		private final BitSet origins = new BitSet();
+		private final BitSet destinations = new BitSet();
+		private int[] destinationIds = new int[0];
+
+		private int[] getDestinations(int size) {
+			if (destinationIds.length < size) {
+				destinationIds = new int[size];
+			}
+			return destinationIds;
+		}
+	}
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.common.network;
+
+import de.siphalor.mousewheelie.MWServerConfig;
+import lombok.CustomLog;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.*;
+
+/**
+ * Limits the work that clients may cause on the server thread.
+ * <p>
+ * Every player has a token bucket that refills each tick, and all players share a budget per tick.
+ * Requests that exceed either limit are deferred to later ticks, up to a limit per player, after which they're rejected.
+ * All methods must be called on the server thread.
+ */
+@CustomLog
+public class PayloadThrottle {
+	private static final Map<UUID, PlayerState> PLAYERS = new LinkedHashMap<>();
+	private static int tickBudget;
+
+	private PayloadThrottle() {}
+
+	/**
+	 * Runs the given work as soon as the limits allow it.
+	 *
+	 * @param player the player that requested the work
+	 * @param cost   the amount of work, usually the amount of slots that are touched
+	 * @param work   the work
+	 * @return whether the work has been accepted, otherwise it has been dropped
+	 */
+	public static boolean submit(ServerPlayerEntity player, int cost, Runnable work) {
+		PlayerState state = PLAYERS.computeIfAbsent(player.getUuid(), uuid -> new PlayerState());
+		if (state.deferred.isEmpty() && tryRun(state, cost, work)) {
+			return true;
+		}
+		if (state.deferred.size() >= MWServerConfig.maxDeferredRequests) {
+			log.warn("Player {} is requesting more inventory operations than allowed, dropping request!", player);
+			return false;
+		}
+		state.deferred.add(new Request(cost, work));
+		return true;
+	}
+
+	/**
+	 * Refills the limits and runs deferred work. Called at the end of every server tick.
+	 */
+	public static void tick() {
+		tickBudget = MWServerConfig.tickWorkBudget;
+		boolean progress = true;
+		// Go round-robin through the players, so that a single player can't use up the whole budget
+		while (progress && tickBudget > 0) {
+			progress = false;
+			for (PlayerState state : PLAYERS.values()) {
+				Request request = state.deferred.peek();
+				if (request != null && tryRun(state, request.cost(), request.work())) {
+					state.deferred.poll();
+					progress = true;
+				}
+			}
+		}
+
+		Iterator<PlayerState> iterator = PLAYERS.values().iterator();
+		while (iterator.hasNext()) {
+			PlayerState state = iterator.next();
+			state.tokens = Math.min(MWServerConfig.playerWorkBurst, state.tokens + MWServerConfig.playerWorkPerTick);
+			if (state.deferred.isEmpty() && state.tokens >= MWServerConfig.playerWorkBurst) {
+				iterator.remove();
+			}
+		}
+	}
+
+	public static void remove(ServerPlayerEntity player) {
+		PLAYERS.remove(player.getUuid());
+	}
+
+	private static boolean tryRun(PlayerState state, int cost, Runnable work) {
+		// Requests that are larger than the limits run once the limits are full, instead of never
+		int playerCost = Math.min(cost, MWServerConfig.playerWorkBurst);
+		int tickCost = Math.min(cost, MWServerConfig.tickWorkBudget);
+		if (state.tokens < playerCost || tickBudget < tickCost) {
+			return false;
+		}
+		state.tokens -= playerCost;
+		tickBudget -= tickCost;
+		work.run();
+		return true;
+	}
+
+	private record Request(int cost, Runnable work) {}
+
+	private static class PlayerState {
+		private int tokens = MWServerConfig.playerWorkBurst;
+		private final Queue<Request> deferred = new ArrayDeque<>();
+	}
+}
@@ -25,13 +25,34 @@ import net.minecraft.network.packet.CustomPayload;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 
+/**
+ * Asks the server to move the stacks of the given slots.
+ * <p>
+ * On the wire, slots that stay in place are dropped.
+ * The moved slots are encoded as a bitmap relative to the lowest moved slot,
+ * followed by the bit-packed destination of each moved slot as index into that set.
+ *
+ * @param syncId       the sync id of the screen handler
+ * @param slotMappings pairs of origin and destination slot ids
+ */
 @CustomLog
 public record ReorderInventoryPayload(int syncId, int[] slotMappings) implements CustomPayload {
 
 	public static final PacketCodec<PacketByteBuf, ReorderInventoryPayload> CODEC =
 			PacketCodec.of(ReorderInventoryPayload::write, ReorderInventoryPayload::read);
-	public  static  final Id<ReorderInventoryPayload> ID = CustomPayload.id(MouseWheelie.MOD_ID + ":reorder_inventory_c2s");
+	public  static  final Id<ReorderInventoryPayload> ID = CustomPayload.id(MouseWheelie.MOD_ID + ":reorder_inventory_v2_c2s");
+
+	/**
+	 * Plain pairs of origin and destination slot ids.
+	 */
+	private static final byte FORMAT_PAIRS = 0;
+	/**
+	 * Bitmap of the moved slots and packed destination indices.
+	 */
+	private static final byte FORMAT_PACKED = 1;
+	private static final int MAX_SPAN = 1 << 16;
 
 	@Override
 	public Id<? extends CustomPayload> getId() {
@@ -40,18 +61,186 @@ public record ReorderInventoryPayload(int syncId, int[] slotMappings) implements
 
 	public void write(@NotNull PacketByteBuf buf) {
 		buf.writeVarInt(syncId);
-		buf.writeIntArray(slotMappings);
+
+		int[] destinations = packDestinations();
+		if (destinations == null) {
+			buf.writeByte(FORMAT_PAIRS);
+			buf.writeIntArray(slotMappings);
+			return;
+		}
+
+		int base = Integer.MAX_VALUE;
+		for (int i = 0; i < slotMappings.length; i += 2) {
+			if (slotMappings[i] != slotMappings[i + 1]) {
+				base = Math.min(base, slotMappings[i]);
+			}
+		}
+		int span = destinations.length;
+		int[] indices = new int[span];
+		int moved = 0;
+		for (int i = 0; i < span; i++) {
+			if (destinations[i] >= 0) {
+				indices[i] = moved++;
+			}
+		}
+
+		buf.writeByte(FORMAT_PACKED);
+		buf.writeVarInt(base);
+		buf.writeVarInt(span);
+		buf.writeVarInt(moved);
+		BitWriter writer = new BitWriter(buf);
+		for (int destination : destinations) {
+			writer.write(destination >= 0 ? 1 : 0, 1);
+		}
+		int indexBits = bitsFor(moved - 1);
+		for (int destination : destinations) {
+			if (destination >= 0) {
+				writer.write(indices[destination], indexBits);
+			}
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Maps the moved slots relative to the lowest moved slot to their relative destinations.
+	 *
+	 * @return the relative destinations, -1 for slots that don't move,
+	 * or <code>null</code> if the mappings can't be packed
+	 */
+	private int @Nullable [] packDestinations() {
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < slotMappings.length; i += 2) {
+			if (slotMappings[i] != slotMappings[i + 1]) {
+				min = Math.min(min, slotMappings[i]);
+				max = Math.max(max, slotMappings[i]);
+			}
+		}
+		if (min > max || min < 0 || max - min >= MAX_SPAN) {
+			return null;
+		}
+
+		int[] destinations = new int[max - min + 1];
+		Arrays.fill(destinations, -1);
+		for (int i = 0; i < slotMappings.length; i += 2) {
+			if (slotMappings[i] != slotMappings[i + 1]) {
+				destinations[slotMappings[i] - min] = slotMappings[i + 1] - min;
+			}
+		}
+		// Only permutations of the moved slots can be packed
+		for (int destination : destinations) {
+			if (destination != -1 && (destination < 0 || destination >= destinations.length || destinations[destination] < 0)) {
+				return null;
+			}
+		}
+		return destinations;
 	}
 
 	public static @Nullable ReorderInventoryPayload read(PacketByteBuf buf) {
 		int syncId = buf.readVarInt();
-		int[] reorderedIndices = buf.readIntArray();
+		byte format = buf.readByte();
 
-		if (reorderedIndices.length % 2 != 0) {
-			log.warn("Received reorder inventory packet with invalid data!");
+		if (format == FORMAT_PAIRS) {
+			int[] reorderedIndices = buf.readIntArray();
+			if (reorderedIndices.length % 2 != 0) {
+				log.warn("Received reorder inventory packet with invalid data!");
+				return null;
+			}
+			return new ReorderInventoryPayload(syncId, reorderedIndices);
+		}
+		if (format != FORMAT_PACKED) {
+			log.warn("Received reorder inventory packet with unknown format {}!", format);
 			return null;
 		}
 
-		return new ReorderInventoryPayload(syncId, reorderedIndices);
+		int base = buf.readVarInt();
+		int span = buf.readVarInt();
+		int moved = buf.readVarInt();
+		if (base < 0 || span <= 0 || span > MAX_SPAN || moved <= 0 || moved > span
+				|| (long) span + moved * (long) bitsFor(moved - 1) > buf.readableBytes() * 8L) {
+			log.warn("Received reorder inventory packet with invalid bounds!");
+			return null;
+		}
+
+		// The origins are written to the even entries first, so that they can be looked up by index
+		int[] slotMappings = new int[moved * 2];
+		BitReader reader = new BitReader(buf);
+		int count = 0;
+		for (int i = 0; i < span; i++) {
+			if (reader.read(1) != 0) {
+				if (count == moved) {
+					log.warn("Received reorder inventory packet with too many moved slots!");
+					return null;
+				}
+				slotMappings[count++ * 2] = base + i;
+			}
+		}
+		if (count != moved) {
+			log.warn("Received reorder inventory packet with too few moved slots!");
+			return null;
+		}
+		int indexBits = bitsFor(moved - 1);
+		for (int i = 0; i < moved; i++) {
+			int index = reader.read(indexBits);
+			if (index >= moved) {
+				log.warn("Received reorder inventory packet with invalid destination!");
+				return null;
+			}
+			slotMappings[i * 2 + 1] = slotMappings[index * 2];
+		}
+		return new ReorderInventoryPayload(syncId, slotMappings);
+	}
+
+	private static int bitsFor(int value) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(value));
+	}
+
+	private static class BitWriter {
+		private final PacketByteBuf buf;
+		private long bits;
+		private int bitCount;
+
+		private BitWriter(PacketByteBuf buf) {
+			this.buf = buf;
+		}
+
+		private void write(int value, int width) {
+			bits |= ((long) value & ((1L << width) - 1)) << bitCount;
+			bitCount += width;
+			while (bitCount >= 8) {
+				buf.writeByte((int) bits);
+				bits >>>= 8;
+				bitCount -= 8;
+			}
+		}
+
+		private void flush() {
+			if (bitCount > 0) {
+				buf.writeByte((int) bits);
+				bits = 0;
+				bitCount = 0;
+			}
+		}
+	}
+
+	private static class BitReader {
+		private final PacketByteBuf buf;
+		private long bits;
+		private int bitCount;
+
+		private BitReader(PacketByteBuf buf) {
+			this.buf = buf;
+		}
+
+		private int read(int width) {
+			while (bitCount < width) {
+				bits |= (long) buf.readUnsignedByte() << bitCount;
+				bitCount += 8;
+			}
+			int value = (int) (bits & ((1L << width) - 1));
+			bits >>>= width;
+			bitCount -= width;
+			return value;
+		}
 	}
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.common.network;
+
+import de.siphalor.mousewheelie.MWServerConfig;
+import de.siphalor.mousewheelie.MouseWheelie;
+import de.siphalor.mousewheelie.common.sort.ServerSorter;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Sent by the server on join to tell the client which accelerated operations it supports and which limits apply.
+ *
+ * @param protocolVersion   the version of the protocol, increased on incompatible changes to existing payloads
+ * @param features          a bitmask of the supported features, see the <code>FEATURE_*</code> constants
+ * @param maxClicks         the maximum amount of clicks in a single click program
+ * @param playerWorkBurst   the amount of work a single player may request at once
+ * @param playerWorkPerTick the amount of work a player regains each tick
+ * @param tickWorkBudget    the amount of work done for all players together in one tick
+ * @param sortModes         the sort modes that the server can execute by itself
+ */
+public record ServerCapabilitiesPayload(
+		int protocolVersion, int features, int maxClicks,
+		int playerWorkBurst, int playerWorkPerTick, int tickWorkBudget,
+		List<Identifier> sortModes
+) implements CustomPayload {
+
+	public static final PacketCodec<PacketByteBuf, ServerCapabilitiesPayload> CODEC =
+			PacketCodec.of(ServerCapabilitiesPayload::write, ServerCapabilitiesPayload::read);
+	public static final Id<ServerCapabilitiesPayload> ID = CustomPayload.id(MouseWheelie.MOD_ID + ":server_capabilities_s2c");
+
+	public static final int PROTOCOL_VERSION = 1;
+	public static final int FEATURE_REORDER = 1;
+	public static final int FEATURE_SORT = 1 << 1;
+	public static final int FEATURE_CLICK_PROGRAM = 1 << 2;
+
+	/**
+	 * Creates the capabilities of this server.
+	 */
+	public static ServerCapabilitiesPayload create() {
+		return new ServerCapabilitiesPayload(
+				PROTOCOL_VERSION, FEATURE_REORDER | FEATURE_SORT | FEATURE_CLICK_PROGRAM, ClickProgramPayload.MAX_CLICKS,
+				MWServerConfig.playerWorkBurst, MWServerConfig.playerWorkPerTick, MWServerConfig.tickWorkBudget,
+				ServerSorter.getSupportedModes()
+		);
+	}
+
+	public boolean supports(int feature) {
+		return (features & feature) == feature;
+	}
+
+	public boolean supportsSortMode(Identifier mode) {
+		return supports(FEATURE_SORT) && sortModes.contains(mode);
+	}
+
+	@Override
+	public Id<? extends CustomPayload> getId() {
+		return ID;
+	}
+
+	public void write(@NotNull PacketByteBuf buf) {
+		buf.writeVarInt(protocolVersion);
+		buf.writeVarInt(features);
+		buf.writeVarInt(maxClicks);
+		buf.writeVarInt(playerWorkBurst);
+		buf.writeVarInt(playerWorkPerTick);
+		buf.writeVarInt(tickWorkBudget);
+		buf.writeCollection(sortModes, PacketByteBuf::writeIdentifier);
+	}
+
+	public static ServerCapabilitiesPayload read(PacketByteBuf buf) {
+		return new ServerCapabilitiesPayload(
+				buf.readVarInt(), buf.readVarInt(), buf.readVarInt(),
+				buf.readVarInt(), buf.readVarInt(), buf.readVarInt(),
+				buf.readList(PacketByteBuf::readIdentifier)
+		);
+	}
+}
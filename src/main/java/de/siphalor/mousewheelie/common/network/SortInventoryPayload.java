@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.common.network;
+
+import de.siphalor.mousewheelie.MouseWheelie;
+import lombok.CustomLog;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Asks the server to merge and sort the given slots by itself.
+ *
+ * @param syncId the sync id of the screen handler
+ * @param slots  the ids of the slots to sort, in the order they should be filled
+ * @param mode   the id of the sort mode, see {@link de.siphalor.mousewheelie.common.sort.ServerSorter}
+ */
+@CustomLog
+public record SortInventoryPayload(int syncId, int[] slots, Identifier mode) implements CustomPayload {
+
+	/**
+	 * The maximum number of slots in a single request, generously above the largest known containers.
+	 */
+	public static final int MAX_SLOTS = 1024;
+	public static final PacketCodec<PacketByteBuf, SortInventoryPayload> CODEC =
+			PacketCodec.of(SortInventoryPayload::write, SortInventoryPayload::read);
+	public static final Id<SortInventoryPayload> ID = CustomPayload.id(MouseWheelie.MOD_ID + ":sort_inventory_c2s");
+
+	@Override
+	public Id<? extends CustomPayload> getId() {
+		return ID;
+	}
+
+	public void write(@NotNull PacketByteBuf buf) {
+		buf.writeVarInt(syncId);
+		buf.writeIntArray(slots);
+		buf.writeIdentifier(mode);
+	}
+
+	public static @Nullable SortInventoryPayload read(PacketByteBuf buf) {
+		int syncId = buf.readVarInt();
+		int[] slots = buf.readIntArray(MAX_SLOTS);
+		Identifier mode = buf.readIdentifier();
+
+		if (slots.length < 2) {
+			log.warn("Received sort inventory packet with too few slots!");
+			return null;
+		}
+		for (int slot : slots) {
+			if (slot < 0) {
+				log.warn("Received sort inventory packet with invalid slot id {}!", slot);
+				return null;
+			}
+		}
+
+		return new SortInventoryPayload(syncId, slots, mode);
+	}
+}
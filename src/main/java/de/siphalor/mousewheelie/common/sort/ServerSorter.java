@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package de.siphalor.mousewheelie.common.sort;
+
+import de.siphalor.mousewheelie.MouseWheelie;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
+import lombok.CustomLog;
+import net.minecraft.component.ComponentChanges;
+import net.minecraft.component.ComponentType;
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+import net.minecraft.screen.ScreenHandler;
+import net.minecraft.screen.slot.Slot;
+import net.minecraft.util.Identifier;
+
+import java.util.*;
+
+/**
+ * Merges and sorts inventories on the logical server.
+ * Only sort modes that don't depend on client information, like the language, are supported.
+ */
+@CustomLog
+public class ServerSorter {
+	public static final Identifier NONE = new Identifier(MouseWheelie.MOD_ID, "none");
+	public static final Identifier QUANTITY = new Identifier(MouseWheelie.MOD_ID, "quantity");
+	public static final Identifier RAW_ID = new Identifier(MouseWheelie.MOD_ID, "raw_id");
+	private static final Set<Identifier> SUPPORTED_MODES = Set.of(NONE, QUANTITY, RAW_ID);
+
+	private ServerSorter() {}
+
+	public static boolean isSupported(Identifier mode) {
+		return SUPPORTED_MODES.contains(mode);
+	}
+
+	public static List<Identifier> getSupportedModes() {
+		return List.copyOf(SUPPORTED_MODES);
+	}
+
+	/**
+	 * Merges and sorts the given slots.
+	 * Nothing is changed if the request is invalid.
+	 *
+	 * @param player        the player that requested the sort
+	 * @param screenHandler the screen handler the slots belong to
+	 * @param slotIds       the slot ids, in the order they should be filled
+	 * @param mode          the sort mode id
+	 * @return whether the slots have been sorted
+	 */
+	public static boolean sort(PlayerEntity player, ScreenHandler screenHandler, int[] slotIds, Identifier mode) {
+		if (!isSupported(mode)) {
+			log.warn("Player {} requested unsupported sort mode {}!", player, mode);
+			return false;
+		}
+		Slot[] slots = collectSlots(player, screenHandler, slotIds);
+		if (slots == null) {
+			return false;
+		}
+
+		List<ItemStack> stacks = merge(slots);
+		int[] sortIds = new int[stacks.size()];
+		for (int i = 0; i < sortIds.length; i++) {
+			sortIds[i] = i;
+		}
+		long[] keys = extractKeys(stacks, mode);
+		String[] componentKeys = new String[stacks.size()];
+		IntArrays.quickSort(sortIds, (a, b) -> {
+			int cmp = Long.compare(keys[a], keys[b]);
+			if (cmp != 0) {
+				return cmp;
+			}
+			// The client additionally compares tooltips and dye colors before the damage.
+			// Tooltips depend on the client's language, so stacks of the same item may still end up in a different order.
+			ItemStack stackA = stacks.get(a);
+			ItemStack stackB = stacks.get(b);
+			cmp = Integer.compare(Registries.ITEM.getRawId(stackA.getItem()), Registries.ITEM.getRawId(stackB.getItem()));
+			if (cmp != 0) {
+				return cmp;
+			}
+			cmp = Integer.compare(stackB.getCount(), stackA.getCount());
+			if (cmp != 0) {
+				return cmp;
+			}
+			cmp = Boolean.compare(stackA.contains(DataComponentTypes.CUSTOM_NAME), stackB.contains(DataComponentTypes.CUSTOM_NAME));
+			if (cmp != 0) {
+				return cmp;
+			}
+			cmp = Integer.compare(stackA.getDamage(), stackB.getDamage());
+			if (cmp != 0) {
+				return cmp;
+			}
+			// Keeps stacks with equal components together
+			cmp = getComponentKey(componentKeys, stacks, a).compareTo(getComponentKey(componentKeys, stacks, b));
+			if (cmp != 0) {
+				return cmp;
+			}
+			return Integer.compare(a, b);
+		});
+
+		for (int i = 0; i < sortIds.length; i++) {
+			ItemStack stack = stacks.get(sortIds[i]);
+			if (!slots[i].canInsert(stack) || stack.getCount() > slots[i].getMaxItemCount(stack)) {
+				log.warn("Player {} tried to sort slot {}, but that slot doesn't accept the sorted stack!", player, slotIds[i]);
+				return false;
+			}
+		}
+		for (int i = 0; i < slots.length; i++) {
+			slots[i].setStack(i < sortIds.length ? stacks.get(sortIds[i]) : ItemStack.EMPTY);
+		}
+		return true;
+	}
+
+	private static Slot[] collectSlots(PlayerEntity player, ScreenHandler screenHandler, int[] slotIds) {
+		if (slotIds.length < 2) {
+			log.warn("Sort inventory packet contains too few slots!");
+			return null;
+		}
+		Slot[] slots = new Slot[slotIds.length];
+		IntSet seen = new IntOpenHashSet(slotIds.length);
+		Inventory targetInv = null;
+		for (int i = 0; i < slotIds.length; i++) {
+			int slotId = slotIds[i];
+			if (slotId < 0 || slotId >= screenHandler.slots.size()) {
+				log.warn("Sort inventory packet contains invalid slot id {}!", slotId);
+				return null;
+			}
+			if (!seen.add(slotId)) {
+				log.warn("Sort inventory packet contains duplicate slot {}!", slotId);
+				return null;
+			}
+			Slot slot = screenHandler.getSlot(slotId);
+			if (targetInv == null) {
+				targetInv = slot.inventory;
+			} else if (targetInv != slot.inventory) {
+				log.warn("Sort inventory packet contains slots from different inventories, first: {}, now: {}!", targetInv, slot.inventory);
+				return null;
+			}
+			if (slot.hasStack() && !slot.canTakeItems(player)) {
+				log.warn("Player {} tried to sort slot {}, but that slot doesn't allow taking items!", player, slotId);
+				return null;
+			}
+			slots[i] = slot;
+		}
+		return slots;
+	}
+
+	/**
+	 * Merges all stacks of the slots into as few stacks as possible.
+	 */
+	private static List<ItemStack> merge(Slot[] slots) {
+		List<ItemStack> stacks = new ArrayList<>(slots.length);
+		// The last non-full stack of each kind
+		Map<ItemStack, ItemStack> partialStacks = new Object2ObjectOpenCustomHashMap<>(StackKindStrategy.INSTANCE);
+		for (Slot slot : slots) {
+			ItemStack stack = slot.getStack();
+			if (stack.isEmpty()) {
+				continue;
+			}
+			stack = stack.copy();
+			int maxCount = slot.getMaxItemCount(stack);
+			ItemStack existing = partialStacks.get(stack);
+			if (existing != null) {
+				int transfer = Math.min(stack.getCount(), maxCount - existing.getCount());
+				existing.increment(transfer);
+				stack.decrement(transfer);
+				if (existing.getCount() >= maxCount) {
+					partialStacks.remove(existing);
+				}
+			}
+			if (!stack.isEmpty()) {
+				stacks.add(stack);
+				if (stack.getCount() < maxCount) {
+					partialStacks.put(stack, stack);
+				}
+			}
+		}
+		return stacks;
+	}
+
+	/**
+	 * Gets a string of the component changes of a stack that doesn't depend on hash codes or the order of the changes.
+	 */
+	private static String getComponentKey(String[] componentKeys, List<ItemStack> stacks, int index) {
+		String key = componentKeys[index];
+		if (key == null) {
+			ComponentChanges changes = stacks.get(index).getComponentChanges();
+			List<String> entries = new ArrayList<>(changes.size());
+			for (Map.Entry<ComponentType<?>, Optional<?>> entry : changes.entrySet()) {
+				entries.add(Registries.DATA_COMPONENT_TYPE.getId(entry.getKey()) + "=" + entry.getValue().map(String::valueOf).orElse("!"));
+			}
+			Collections.sort(entries);
+			key = String.join(",", entries);
+			componentKeys[index] = key;
+		}
+		return key;
+	}
+
+	private static long[] extractKeys(List<ItemStack> stacks, Identifier mode) {
+		long[] keys = new long[stacks.size()];
+		if (mode.equals(RAW_ID)) {
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = Registries.ITEM.getRawId(stacks.get(i).getItem());
+			}
+		} else if (mode.equals(QUANTITY)) {
+			Object2LongMap<Item> amounts = new Object2LongOpenHashMap<>();
+			for (ItemStack stack : stacks) {
+				amounts.mergeLong(stack.getItem(), stack.getCount(), Long::sum);
+			}
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = -amounts.getLong(stacks.get(i).getItem());
+			}
+		} else {
+			// Keep the current order
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = i;
+			}
+		}
+		return keys;
+	}
+}
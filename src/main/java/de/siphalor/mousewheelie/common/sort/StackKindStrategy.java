@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020-2022 Siphalor
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package de.siphalor.mousewheelie.common.sort;
+
+import it.unimi.dsi.fastutil.Hash;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Groups stacks that are equal in item and components, so that they can be combined.
+ */
+public final class StackKindStrategy implements Hash.Strategy<ItemStack> {
+	public static final StackKindStrategy INSTANCE = new StackKindStrategy();
+
+	private StackKindStrategy() {}
+
+	@Override
+	public int hashCode(ItemStack stack) {
+		return stack == null ? 0 : ItemStack.hashCode(stack);
+	}
+
+	@Override
+	public boolean equals(ItemStack a, ItemStack b) {
+		if (a == b) {
+			return true;
+		}
+		return a != null && b != null && ItemStack.areItemsAndComponentsEqual(a, b);
+	}
+}